@@ -3,15 +3,21 @@ package io.github.bineq.daleq.evaluation;
 import com.google.common.base.Preconditions;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 /**
  * Script to check evaluation results.
  * Can be used while the main script RunEvaluation is still running.
+ * The artifacts for each provider are read once, IDBs are compared by digest (taken from the manifest if available),
+ * and GAVs are processed in parallel (the number of threads can be set with -DTHREADS=<n>, the default is the number of cores).
+ * Results are reported for each pair of providers.
  * @author jens dietrich
  */
 public class CheckEvaluationResults {
@@ -23,52 +29,110 @@ public class CheckEvaluationResults {
         Preconditions.checkArgument(args.length > 0,"one argument required - the evaluation db folder");
         File ROOT = new File(args[0]);
 
-        int sameIDBCounter = 0;
-        int diffIDBCounter = 0;
+        // IDB digests recorded in the manifest, if there is one
+        Map<File,String> idbDigests = new HashMap<>();
+        List<Manifest.Artifact> artifacts = Manifest.readArtifacts(ROOT.toPath());
+        if (artifacts != null) {
+            artifacts.stream()
+                .filter(artifact -> artifact.tool().equals("daleq"))
+                .forEach(artifact -> idbDigests.put(artifact.path().toFile(), artifact.digest()));
+        }
 
-        for (File gavDir : ROOT.listFiles(f -> f.isDirectory() && !f.isHidden())) {
+        // class folders are grouped by GAV, GAVs are processed in parallel
+        Map<File,List<List<File>>> providerDirsByGAV = getProviderDirs(ROOT).entrySet().stream()
+            .collect(Collectors.groupingBy(e -> e.getKey().getParentFile(), Collectors.mapping(Map.Entry::getValue, Collectors.toList())));
+
+        // counters for same and different IDBs by pair of providers
+        Map<String,LongAdder[]> counters = new ConcurrentSkipListMap<>();
+
+        ForkJoinPool pool = new ForkJoinPool(Integer.getInteger(Scheduler.THREADS, Runtime.getRuntime().availableProcessors()));
+        try {
+            pool.submit(() -> providerDirsByGAV.values().parallelStream().forEach(classDirs -> {
+                for (List<File> providerDirs : classDirs) {
+                    try {
+                        check(providerDirs, idbDigests, counters);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            })).get();
+        }
+        finally {
+            pool.shutdown();
+        }
 
-            for (File classDir: gavDir.listFiles(f -> f.isDirectory() && !f.isHidden())) {
-                List<File> idbs = new ArrayList<>();
-                List<File> classes = new ArrayList<>();
-                for (File providerDir: classDir.listFiles(f -> f.isDirectory() && !f.isHidden())) {
-                    assert PROVIDERS.contains(providerDir.getName());
+        long sameIDBCounter = 0;
+        long diffIDBCounter = 0;
+        for (Map.Entry<String,LongAdder[]> entry : counters.entrySet()) {
+            System.out.println(entry.getKey() + " - diff idb: " + entry.getValue()[1].sum() + ", same idb: " + entry.getValue()[0].sum());
+            sameIDBCounter = sameIDBCounter + entry.getValue()[0].sum();
+            diffIDBCounter = diffIDBCounter + entry.getValue()[1].sum();
+        }
+        System.out.println("diff idb: " + diffIDBCounter);
+        System.out.println("same idb: " + sameIDBCounter);
+    }
 
-                    File idb = new File(providerDir, "idb-projected.txt");
-                    if (idb.exists()) {
-                        idbs.add(idb);
-                    }
+    // check the results for one class, artifacts are read once per provider, and IDBs are compared by digest
+    private static void check(List<File> providerDirs, Map<File,String> idbDigests, Map<String,LongAdder[]> counters) throws IOException {
+        List<String> providers = new ArrayList<>();
+        List<String> classDigests = new ArrayList<>();
+        List<String> idbDigests4Class = new ArrayList<>();
+        for (File providerDir: providerDirs) {
+            assert PROVIDERS.contains(providerDir.getName());
+
+            File idb = new File(providerDir, "idb-projected.txt");
+            String idbDigest = idbDigests.get(idb);
+            if (idbDigest == null && idb.exists()) {
+                idbDigest = Manifest.digest(Files.readAllBytes(idb.toPath()));
+            }
+            if (idbDigest == null) {
+                continue;
+            }
 
-                    File[] classFiles = providerDir.listFiles(f -> !f.isDirectory() && f.getName().endsWith(".class"));
-                    assert classFiles.length == 1;
-                    classes.add(classFiles[0]);
+            File[] classFiles = providerDir.listFiles(f -> !f.isDirectory() && f.getName().endsWith(".class"));
+            assert classFiles.length == 1;
 
+            providers.add(providerDir.getName());
+            classDigests.add(Manifest.digest(Files.readAllBytes(classFiles[0].toPath())));
+            idbDigests4Class.add(idbDigest);
+        }
+
+        for (int i=0;i<providers.size();i++) {
+            for (int j=0;j<i;j++) {
+                // if the bytecode is the same this folder(s)/file(s) are not created
+                assert !classDigests.get(i).equals(classDigests.get(j));
+
+                String pair = providers.get(i).compareTo(providers.get(j)) < 0 ? providers.get(i) + " vs " + providers.get(j) : providers.get(j) + " vs " + providers.get(i);
+                LongAdder[] counter = counters.computeIfAbsent(pair, k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+                if (idbDigests4Class.get(i).equals(idbDigests4Class.get(j))) {
+                    counter[0].increment();
                 }
-                for (int i=0;i<idbs.size();i++) {
-                    for (int j=0;j<i;j++) {
-
-                        byte[] bytecode1 = Files.readAllBytes(classes.get(i).toPath());
-                        byte[] bytecode2 = Files.readAllBytes(classes.get(j).toPath());
-
-                        // if the bytecode is the same this folder(s)/file(s) are not created
-                        assert !Arrays.equals(bytecode1, bytecode2);
-
-                        File idbF1 = idbs.get(i);
-                        File idbF2 = idbs.get(j);
-                        String idb1 = Files.readString(idbF1.toPath());
-                        String idb2 = Files.readString(idbF2.toPath());
-                        if (idb1.equals(idb2)) {
-                            sameIDBCounter = sameIDBCounter + 1;
-                        }
-                        else {
-                            diffIDBCounter = diffIDBCounter + 1;
-                        }
-                    }
+                else {
+                    counter[1].increment();
                 }
             }
         }
+    }
 
-        System.out.println("diff idb: " + diffIDBCounter);
-        System.out.println("same idb: " + sameIDBCounter);
+    // provider folders by class folder, taken from the manifest if there is one to avoid listing all folders
+    public static Map<File,List<File>> getProviderDirs(File root) throws IOException {
+        Map<File,List<File>> providerDirs = new LinkedHashMap<>();
+        List<Manifest.Artifact> artifacts = Manifest.readArtifacts(root.toPath());
+        if (artifacts != null) {
+            for (Manifest.Artifact artifact : artifacts) {
+                if (artifact.tool().equals("daleq")) {
+                    File providerDir = artifact.path().getParent().toFile();
+                    providerDirs.computeIfAbsent(providerDir.getParentFile(), k -> new ArrayList<>()).add(providerDir);
+                }
+            }
+        }
+        else {
+            for (File gavDir : root.listFiles(f -> f.isDirectory() && !f.isHidden())) {
+                for (File classDir : gavDir.listFiles(f -> f.isDirectory() && !f.isHidden())) {
+                    providerDirs.put(classDir, List.of(classDir.listFiles(f -> f.isDirectory() && !f.isHidden())));
+                }
+            }
+        }
+        return providerDirs;
     }
 }
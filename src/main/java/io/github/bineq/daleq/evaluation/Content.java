@@ -5,26 +5,37 @@ import com.google.common.io.ByteStreams;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.SoftReference;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
  * Represents content of a jar/zip or folder representation - bytecode, sourcecode, metadata, resources.
+ * Data is loaded lazily and cached until release() is called. If -DCONTENT_SOFT_REFERENCES=true is set, cached data is
+ * only softly referenced and may be reclaimed by the garbage collector (it is then reloaded on demand).
+ * Identity is based on the jar (or folder) and the name only.
  * @author jens dietrich
  */
 public class Content {
 
+    public static final String CONTENT_SOFT_REFERENCES = "CONTENT_SOFT_REFERENCES";
+    static final boolean USE_SOFT_REFERENCES = Boolean.getBoolean(CONTENT_SOFT_REFERENCES);
+
     private Path jarFileOrFolder = null;
     private String name = null;
-    // derived & lazily initialised
+    // derived & lazily initialised, only one of those is used
     private byte[] data = null;
+    private SoftReference<byte[]> softData = null;
+    // not a monitor, so that virtual threads loading data are not pinned to their carrier threads
+    private final ReentrantLock lock = new ReentrantLock();
 
     public Content(Path jarFileOrFolder, String name) {
         Preconditions.checkNotNull(jarFileOrFolder);
@@ -65,12 +76,26 @@ public class Content {
      * @throws IOException
      */
     public byte[] load() throws IOException {
+        lock.lock();
+        try {
+            return doLoad();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] doLoad() throws IOException {
+        byte[] data = this.data != null ? this.data : (softData != null ? softData.get() : null);
         if (data==null) {
             if (Files.isDirectory(jarFileOrFolder)) {
                 // interpret as folder
-                Optional<Path> match = Files.walk(jarFileOrFolder)
-                    .filter(p -> name.equals(jarFileOrFolder.relativize(p).toString()))
-                    .findFirst();
+                Optional<Path> match;
+                try (Stream<Path> files = Files.walk(jarFileOrFolder)) {
+                    match = files
+                        .filter(p -> name.equals(jarFileOrFolder.relativize(p).toString()))
+                        .findFirst();
+                }
 
                 Preconditions.checkState(match.isPresent(),"File not found: " + jarFileOrFolder + "/" + name);
                 data = Files.readAllBytes(match.get());
@@ -78,23 +103,45 @@ public class Content {
             }
             else {
                 // interpret as jar file
-                ZipFile zip = new ZipFile(jarFileOrFolder.toFile());
-                Preconditions.checkNotNull(zip);
-                while (name.startsWith("/")) {
-                    name = name.substring(1);
-                }
-                ZipEntry entry = zip.getEntry(name);
-                Preconditions.checkNotNull(entry); // see validate !
-
-                try (InputStream in = zip.getInputStream(entry)) {
-                    data = ByteStreams.toByteArray(in);
+                try (ZipFile zip = new ZipFile(jarFileOrFolder.toFile())) {
+                    String entryName = name;
+                    while (entryName.startsWith("/")) {
+                        entryName = entryName.substring(1);
+                    }
+                    ZipEntry entry = zip.getEntry(entryName);
+                    Preconditions.checkNotNull(entry); // see validate !
+
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        data = ByteStreams.toByteArray(in);
+                    }
                 }
             }
             assert data!=null;
+            if (USE_SOFT_REFERENCES) {
+                softData = new SoftReference<>(data);
+            }
+            else {
+                this.data = data;
+            }
         }
         return data;
     }
 
+    /**
+     * Release the cached data, it will be reloaded if load() is called again.
+     * This should be called when the data is no longer needed, e.g. after classes have been compared.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            data = null;
+            softData = null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Get the actual data as string
      * @return
@@ -117,14 +164,12 @@ public class Content {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Content content = (Content) o;
-        return Objects.equals(jarFileOrFolder, content.jarFileOrFolder) && Objects.equals(name, content.name) && Arrays.equals(data, content.data);
+        return Objects.equals(jarFileOrFolder, content.jarFileOrFolder) && Objects.equals(name, content.name);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(jarFileOrFolder, name);
-        result = 31 * result + Arrays.hashCode(data);
-        return result;
+        return Objects.hash(jarFileOrFolder, name);
     }
 
     @Override
@@ -5,22 +5,48 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
-import java.util.Set;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import static io.github.bineq.daleq.evaluation.RunEvaluation.escapeDollarChar;
 import static io.github.bineq.daleq.evaluation.RunEvaluation.getProviderName;
 import static io.github.bineq.daleq.evaluation.RunEvaluation.parseRecords;
 
+/**
+ * Copy the bytecode and the sources of classes from the jars of all providers for further analysis.
+ * Usage (single class): CopyClasses4Analysis <gav> <class> <output-folder> <input1>.tsv <input2>.tsv ..
+ * Usage (batch): CopyClasses4Analysis -batch <request-file> <output-folder> <input1>.tsv <input2>.tsv ..
+ * In batch mode, the request file contains one pair of gav and class per line, tab-separated. Lines from summary.csv
+ * (e.g. filtered NON_EQUIVALENT records) can also be used. Files are copied to <output-folder>/<gav>/<class>/<provider>/ .
+ * @author jens dietrich
+ */
 public class CopyClasses4Analysis {
 
     final static Logger LOG = LoggerFactory.getLogger(CopyClasses4Analysis.class);
 
+    public static final String BATCH = "-batch";
+
     public static void main (String[] args) throws IOException {
 
+        if (args.length > 0 && args[0].equals(BATCH)) {
+            Preconditions.checkArgument(args.length > 3, "batch mode requires the request file, the output folder and the dataset(s) (index files *.tsv)");
+            Path requestFile = Path.of(args[1]);
+            Preconditions.checkArgument(Files.exists(requestFile), "request file does not exist: " + requestFile);
+            Path destDir = Path.of(args[2]);
+            List<Path> datasets = Stream.of(args).skip(3).map(Path::of).collect(Collectors.toUnmodifiableList());
+            batch(requestFile, destDir, datasets);
+            return;
+        }
+
         String gav = args[0];
         String className = args[1];
         LOG.info("GAV: {}", gav);
@@ -104,6 +130,84 @@ public class CopyClasses4Analysis {
 
     }
 
+    static void batch(Path requestFile, Path destDir, List<Path> datasets) throws IOException {
+        Map<String,Set<String>> classesByGav = parseRequests(requestFile);
+        LOG.info("{} classes in {} GAVs requested", classesByGav.values().stream().mapToInt(Set::size).sum(), classesByGav.size());
+
+        // one task per jar, i.e. for each provider and GAV
+        List<Runnable> tasks = new ArrayList<>();
+        AtomicInteger bytecodeCounter = new AtomicInteger(0);
+        AtomicInteger sourceCounter = new AtomicInteger(0);
+        for (Path dataset : datasets) {
+            Preconditions.checkArgument(Files.exists(dataset));
+            Preconditions.checkArgument(dataset.toString().endsWith(".tsv"));
+            String provider = getProviderName(dataset);
+            LOG.info("Parsing records from " + dataset);
+            Map<String,Record> recordsByGav = new HashMap<>();
+            parseRecords(dataset).forEach(record -> recordsByGav.put(record.gav(), record));
+            LOG.info("\t" + recordsByGav.size() + " parsed");
+
+            for (String gav : classesByGav.keySet()) {
+                Record record = recordsByGav.get(gav);
+                if (record == null) {
+                    LOG.warn("no record found for {} provided by {}", gav, provider);
+                    continue;
+                }
+                tasks.add(() -> {
+                    bytecodeCounter.addAndGet(copy(record.binMainFile(), classesByGav.get(gav), c -> c, destDir, gav, provider));
+                    sourceCounter.addAndGet(copy(record.srcMainFile(), classesByGav.get(gav), CopyClasses4Analysis::getSourceFileName, destDir, gav, provider));
+                });
+            }
+        }
+
+        tasks.parallelStream().forEach(Runnable::run);
+        LOG.info("{} bytecode files and {} source files copied to {}", bytecodeCounter.get(), sourceCounter.get(), destDir);
+    }
+
+    // parse pairs of gav and class, or lines from summary.csv
+    static Map<String,Set<String>> parseRequests(Path requestFile) throws IOException {
+        Map<String,Set<String>> classesByGav = new TreeMap<>();
+        for (String line : Files.readAllLines(requestFile)) {
+            String[] tokens = line.split("\t");
+            if (line.isBlank() || tokens[0].equals("gav")) {
+                continue; // header
+            }
+            String clazz = tokens.length >= 7 ? tokens[3] : tokens[1];
+            classesByGav.computeIfAbsent(tokens[0], k -> new TreeSet<>()).add(clazz);
+        }
+        return classesByGav;
+    }
+
+    // copy entries from a jar, the jar is opened only once
+    private static int copy(Path jar, Set<String> classNames, Function<String,String> entryNameMapping, Path destDir, String gav, String provider) {
+        int counter = 0;
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            for (String className : classNames) {
+                String entryName = entryNameMapping.apply(className);
+                ZipEntry entry = zip.getEntry(entryName);
+                if (entry == null) {
+                    LOG.warn("entry {} not found in {}", entryName, jar);
+                    continue;
+                }
+                Path dir = destDir.resolve(gav).resolve(escapeDollarChar(className.replace('/', '.').replace(".class", ""))).resolve(provider);
+                Files.createDirectories(dir);
+                Path file = dir.resolve(entryName.substring(entryName.lastIndexOf('/') + 1));
+                try (InputStream in = zip.getInputStream(entry)) {
+                    Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                counter = counter + 1;
+            }
+        }
+        catch (IOException e) {
+            LOG.error("Error copying entries from " + jar, e);
+        }
+        return counter;
+    }
 
+    // for inner classes we need to locate top level class
+    static String getSourceFileName(String className) {
+        String outerClassName = className.contains("$") ? className.substring(0, className.indexOf('$')) : className.replace(".class", "");
+        return outerClassName + ".java";
+    }
 
 }
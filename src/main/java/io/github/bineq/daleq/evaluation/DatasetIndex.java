@@ -0,0 +1,160 @@
+package io.github.bineq.daleq.evaluation;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loads the records from the tsv index files of the alternative build dataset.
+ * Lines are parsed in parallel, and the existence of the files referenced is checked with one directory listing per folder.
+ * A binary snapshot of the parsed records is written next to the index file (<index>.tsv.snapshot),
+ * and reused as long as the modification time and the hash of the index file do not change.
+ * Note that the existence of files is not checked again when records are loaded from a snapshot.
+ * @author jens dietrich
+ */
+public class DatasetIndex {
+
+    final static Logger LOG = LoggerFactory.getLogger(DatasetIndex.class);
+
+    static final String SNAPSHOT_EXTENSION = ".snapshot";
+    static final int SNAPSHOT_MAGIC = 0xDA1E0001;
+    static final int SNAPSHOT_VERSION = 1;
+
+    public static Set<Record> load(Path indexFile) throws IOException {
+        Path datasetRoot = indexFile.getParent();
+        Path snapshot = indexFile.resolveSibling(indexFile.getFileName() + SNAPSHOT_EXTENSION);
+        long lastModified = Files.getLastModifiedTime(indexFile).toMillis();
+        String hash = hash(indexFile);
+
+        if (Files.exists(snapshot)) {
+            Set<Record> records = readSnapshot(snapshot, datasetRoot, lastModified, hash);
+            if (records != null) {
+                LOG.info("Records loaded from snapshot {}", snapshot);
+                return records;
+            }
+            LOG.info("Snapshot {} is stale and will be replaced", snapshot);
+        }
+
+        Set<Record> records = Files.readAllLines(indexFile).parallelStream()
+            .map(line -> Record.parse(datasetRoot, line))
+            .collect(Collectors.toUnmodifiableSet());
+        validate(records);
+
+        try {
+            writeSnapshot(snapshot, datasetRoot, lastModified, hash, records);
+            LOG.info("Records snapshot written to {}", snapshot);
+        }
+        catch (IOException x) {
+            LOG.warn("Cannot write records snapshot to " + snapshot, x);
+        }
+        return records;
+    }
+
+    /**
+     * Check that the bin and src files referenced by records exist.
+     * This uses one directory listing per folder instead of checking each file individually.
+     * @throws IllegalArgumentException if a file does not exist
+     */
+    static void validate(Collection<Record> records) {
+        Map<Path,List<Path>> filesByFolder = records.stream()
+            .flatMap(record -> Stream.of(record.binMainFile(), record.srcMainFile()))
+            .collect(Collectors.groupingBy(file -> file.toAbsolutePath().getParent()));
+        filesByFolder.entrySet().parallelStream().forEach(entry -> {
+            Set<String> existingFiles;
+            try (Stream<Path> files = Files.list(entry.getKey())) {
+                existingFiles = files.map(f -> f.getFileName().toString()).collect(Collectors.toSet());
+            }
+            catch (IOException x) {
+                existingFiles = Set.of();
+            }
+            for (Path file : entry.getValue()) {
+                Preconditions.checkArgument(existingFiles.contains(file.getFileName().toString()), "file does not exist: " + file);
+            }
+        });
+    }
+
+    private static String hash(Path file) throws IOException {
+        try (DigestInputStream in = new DigestInputStream(new BufferedInputStream(Files.newInputStream(file)), MessageDigest.getInstance("SHA-256"))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return HexFormat.of().formatHex(in.getMessageDigest().digest());
+        }
+        catch (NoSuchAlgorithmException x) {
+            throw new IOException(x);
+        }
+    }
+
+    private static void writeSnapshot(Path snapshot, Path datasetRoot, long lastModified, String hash, Set<Record> records) throws IOException {
+        Path tmp = Files.createTempFile(snapshot.getParent(), snapshot.getFileName().toString(), ".tmp");
+        try {
+            writeRecords(tmp, datasetRoot, lastModified, hash, records);
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            // only left if writing has failed
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // files are stored relative to the dataset root, so that snapshots remain valid when datasets are moved
+    private static void writeRecords(Path tmp, Path datasetRoot, long lastModified, String hash, Set<Record> records) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(lastModified);
+            out.writeUTF(hash);
+            out.writeInt(records.size());
+            for (Record record : records) {
+                out.writeUTF(record.groupId());
+                out.writeUTF(record.artifactId());
+                out.writeUTF(record.version());
+                out.writeUTF(record.providerVersion());
+                out.writeUTF(relativize(datasetRoot, record.binMainFile()));
+                out.writeUTF(record.binMainUrl());
+                out.writeUTF(record.binMainMD5());
+                out.writeUTF(record.binMainMD5Url());
+                out.writeUTF(relativize(datasetRoot, record.srcMainFile()));
+                out.writeUTF(record.srcMainUrl());
+                out.writeUTF(record.srcMainMd5());
+                out.writeUTF(record.srcMainMd5Url());
+            }
+        }
+    }
+
+    private static String relativize(Path datasetRoot, Path file) {
+        return file.startsWith(datasetRoot) ? datasetRoot.relativize(file).toString() : file.toString();
+    }
+
+    // returns null if the snapshot is stale or cannot be read
+    private static Set<Record> readSnapshot(Path snapshot, Path datasetRoot, long lastModified, String hash) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION || in.readLong() != lastModified || !in.readUTF().equals(hash)) {
+                return null;
+            }
+            int size = in.readInt();
+            Set<Record> records = new HashSet<>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                records.add(new Record(
+                    in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                    datasetRoot.resolve(in.readUTF()), in.readUTF(), in.readUTF(), in.readUTF(),
+                    datasetRoot.resolve(in.readUTF()), in.readUTF(), in.readUTF(), in.readUTF()
+                ));
+            }
+            return Collections.unmodifiableSet(records);
+        }
+        catch (IOException x) {
+            LOG.warn("Cannot read records snapshot " + snapshot, x);
+            return null;
+        }
+    }
+}
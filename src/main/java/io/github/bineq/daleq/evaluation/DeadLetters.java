@@ -0,0 +1,202 @@
+package io.github.bineq.daleq.evaluation;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Failure isolation for pairs of jars and pairs of classes.
+ * If comparing an item fails with an exception (e.g. when loading classes from a corrupted jar), the item is recorded in a dead letter file
+ * in the output folder, and the run continues with the next item. Failed items have no verdicts.
+ * Each item is attempted up to -DDEAD_LETTER_ATTEMPTS=<n> times (default: 1) before it is dead-lettered, with a backoff of
+ * -DDEAD_LETTER_BACKOFF=<ms> (default: 1000) that doubles with each attempt.
+ * To replay only the dead-lettered items, set the file as JVM argument, e.g. -DDEAD_LETTERS=<output-folder>/dead-letters.tsv ,
+ * usually with more attempts. If a pair of jars has failed, all of its classes are replayed.
+ * Format: tab-separated, columns are gav, provider1, provider2, class (- for pairs of jars) and the stack trace
+ * (with line breaks and tabs escaped as \n and \t).
+ * @author jens dietrich
+ */
+public class DeadLetters {
+
+    final static Logger LOG = LoggerFactory.getLogger(DeadLetters.class);
+
+    public static final String FILE_NAME = "dead-letters.tsv";
+    public static final String DEAD_LETTERS = "DEAD_LETTERS";
+    public static final String DEAD_LETTER_ATTEMPTS = "DEAD_LETTER_ATTEMPTS";
+    public static final String DEAD_LETTER_BACKOFF = "DEAD_LETTER_BACKOFF";
+
+    static final int ATTEMPTS = Math.max(1, Integer.getInteger(DEAD_LETTER_ATTEMPTS, 1));
+    static final long BACKOFF_IN_MS = Long.getLong(DEAD_LETTER_BACKOFF, 1000);
+
+    static final String NONE = "-";
+
+    /**
+     * Work that can fail.
+     */
+    @FunctionalInterface
+    interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * A pair of jars (clazz is null) or a pair of classes.
+     */
+    record Item(String gav, String provider1, String provider2, String clazz) {}
+
+    private static final LongAdder failedJars = new LongAdder();
+    private static final LongAdder failedClasses = new LongAdder();
+    private static final LongAdder recoveredItems = new LongAdder();
+
+    private final Set<String> classKeys = new HashSet<>();
+    private final Set<String> jarKeys = new HashSet<>();
+    private final Set<String> failedJarKeys = new HashSet<>();
+
+    /**
+     * Load the dead letters set using -DDEAD_LETTERS, or return null if no such file has been set.
+     * If the file is the one in the output folder, it is renamed so that only new failures are recorded in this run.
+     * @param root the output folder
+     * @return the dead letters or null
+     */
+    static DeadLetters loadIfSet(Path root) throws IOException {
+        String value = System.getProperty(DEAD_LETTERS);
+        if (value == null) {
+            return null;
+        }
+        Path file = Path.of(value);
+        Preconditions.checkArgument(Files.exists(file), "dead letter file not found: " + file);
+        DeadLetters deadLetters = new DeadLetters();
+        List<String> lines = Files.readAllLines(file);
+        for (String line : lines) {
+            String[] tokens = line.split("\t");
+            assert tokens.length == 5;
+            String jarKey = key(tokens[0], tokens[1], tokens[2]);
+            deadLetters.jarKeys.add(jarKey);
+            if (tokens[3].equals(NONE)) {
+                deadLetters.failedJarKeys.add(jarKey);
+            }
+            else {
+                deadLetters.classKeys.add(key(tokens[0], tokens[1], tokens[2], tokens[3]));
+            }
+        }
+        LOG.info("Dead letters loaded from {}, {} pairs of jars and {} pairs of classes will be replayed", file, deadLetters.failedJarKeys.size(), deadLetters.classKeys.size());
+        if (Files.exists(root.resolve(FILE_NAME)) && Files.isSameFile(file, root.resolve(FILE_NAME))) {
+            Path previous = root.resolve(FILE_NAME + ".previous");
+            Files.move(file, previous, StandardCopyOption.REPLACE_EXISTING);
+            LOG.info("Dead letters moved to {}", previous);
+        }
+        return deadLetters;
+    }
+
+    boolean contains(String gav, String provider1, String provider2) {
+        return jarKeys.contains(key(gav, provider1, provider2));
+    }
+
+    boolean contains(String gav, String provider1, String provider2, String clazz) {
+        return failedJarKeys.contains(key(gav, provider1, provider2)) || classKeys.contains(key(gav, provider1, provider2, clazz));
+    }
+
+    /**
+     * Run a task for a pair of jars or classes, retrying it and recording it as dead letter if all attempts fail.
+     * Interrupts (i.e. cancelled work) are not handled, but propagated.
+     * @param root the output folder
+     * @param gav the gav
+     * @param provider1 the first provider
+     * @param provider2 the second provider
+     * @param clazz the class, or null for a pair of jars
+     * @param task the task
+     * @return true if the task has succeeded
+     */
+    static boolean isolate(Path root, String gav, String provider1, String provider2, String clazz, Task task) {
+        return isolate(root, List.of(new Item(gav, provider1, provider2, clazz)), task);
+    }
+
+    /**
+     * Run a task for several items (e.g. the pairs of jars for a GAV in N-way mode), all items are recorded as dead letters if all attempts fail.
+     * @param root the output folder
+     * @param items the items
+     * @param task the task
+     * @return true if the task has succeeded
+     */
+    static boolean isolate(Path root, List<Item> items, Task task) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                task.run();
+                if (attempt > 1) {
+                    recoveredItems.increment();
+                }
+                return true;
+            }
+            catch (Exception x) {
+                if (isInterrupt(x)) {
+                    throw x instanceof RuntimeException rx ? rx : new RuntimeException(x);
+                }
+                if (attempt >= ATTEMPTS) {
+                    items.forEach(item -> add(root, item, x));
+                    return false;
+                }
+                LOG.warn("Attempt {} of {} failed for {}, retrying", attempt, ATTEMPTS, items);
+                try {
+                    Thread.sleep(BACKOFF_IN_MS << (attempt - 1));
+                } catch (InterruptedException ix) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(ix);
+                }
+            }
+        }
+    }
+
+    private static boolean isInterrupt(Exception x) {
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        for (Throwable cause = x; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static synchronized void add(Path root, Item item, Exception x) {
+        String gav = item.gav();
+        String provider1 = item.provider1();
+        String provider2 = item.provider2();
+        String clazz = item.clazz();
+        if (clazz == null) {
+            failedJars.increment();
+        }
+        else {
+            failedClasses.increment();
+        }
+        LOG.error("Failed to compare {} {} provided by {} and {}, recorded in {}", gav, clazz == null ? "" : clazz, provider1, provider2, FILE_NAME, x);
+        StringWriter stackTrace = new StringWriter();
+        x.printStackTrace(new PrintWriter(stackTrace));
+        String escaped = stackTrace.toString().replace("\\", "\\\\").replace("\t", "\\t").replace("\r", "").replace("\n", "\\n");
+        String line = String.join("\t", gav, provider1, provider2, clazz == null ? NONE : clazz, escaped) + System.lineSeparator();
+        try {
+            Files.writeString(root.resolve(FILE_NAME), line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            LOG.error("Error recording dead letter: " + line, e);
+        }
+    }
+
+    static void logStats() {
+        LOG.info("dead letters (failed after {} attempt(s)) - pairs of jars: {}, pairs of classes: {}, items recovered by retries: {}", ATTEMPTS, failedJars.sum(), failedClasses.sum(), recoveredItems.sum());
+    }
+
+    private static String key(String... values) {
+        return String.join("\t", values);
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Jar-verdict mode, enabled with -DJAR_VERDICTS=true , for runs where only the verdicts for jars matter.
+ * The verdict for a jar is the worst verdict for its classes (see VerdictCounter::worst), and the jar is not equivalent
+ * as soon as one class is NON_EQUIVALENT (or cannot be compared). Then the remaining classes of the jar are skipped.
+ * To settle jars early, classes that are likely to differ, and are cheap to compare, are compared first: classes with different sizes,
+ * then classes with the same size but different CRCs, then classes with the same CRC (very likely EQUAL), smallest first within each group.
+ * Sizes and CRCs are read from the central directories of the jars.
+ * The classes of a pair of jars are compared serially in this order (also with -DVIRTUAL_THREADS=true , pairs of jars are still compared in parallel),
+ * as comparing them concurrently would start all of them before any verdict is known.
+ * A jar settled early is only known to be at least NON_EQUIVALENT: a class skipped might have been an ERROR or TIMEOUT in a full run.
+ * Therefore pairs of jars settled early are not included in the counts of pairs of jars by verdict, but reported as a separate bucket,
+ * and they are not recorded as fully compared in the manifest.
+ * @author jens dietrich
+ */
+public class EarlyTermination {
+
+    final static Logger LOG = LoggerFactory.getLogger(EarlyTermination.class);
+
+    public static final String JAR_VERDICTS = "JAR_VERDICTS";
+    static final boolean ENABLED = Boolean.getBoolean(JAR_VERDICTS);
+
+    /**
+     * The uncompressed size and the CRC of a class file, read from the central directory of a jar.
+     */
+    record ClassEntry(long size, long crc) {}
+
+    private static final LongAdder settledJars = new LongAdder();
+    private static final LongAdder skippedClasses = new LongAdder();
+    private static final LongAdder skippedBytes = new LongAdder();
+
+    /**
+     * Get the sizes and CRCs of the class files in a jar.
+     * @param jar the jar
+     * @return a map associating class file names with entries (sizes and CRCs are -1 if unknown)
+     */
+    static Map<String,ClassEntry> classEntries(Path jar) throws IOException {
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            Map<String,ClassEntry> entries = new HashMap<>();
+            Enumeration<? extends ZipEntry> iter = zip.entries();
+            while (iter.hasMoreElements()) {
+                ZipEntry entry = iter.nextElement();
+                if (entry.getName().endsWith(".class")) {
+                    entries.put(entry.getName(), new ClassEntry(entry.getSize(), entry.getCrc()));
+                }
+            }
+            return entries;
+        }
+        catch (Exception x) {
+            throw new IOException("Error reading from zip file " + jar, x);
+        }
+    }
+
+    /**
+     * Estimate how likely it is that two versions of a class differ.
+     * @return 2 if sizes differ, 1 if CRCs differ or are unknown, 0 if sizes and CRCs are the same
+     */
+    static int differences(ClassEntry entry1, ClassEntry entry2) {
+        if (entry1 == null || entry2 == null) {
+            return 0;
+        }
+        if (entry1.size() != entry2.size()) {
+            return 2;
+        }
+        if (entry1.crc() == -1 || entry1.crc() != entry2.crc()) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Order classes so that classes likely to differ come first, and cheaper classes come first among those.
+     * Ties are broken by name to make the order deterministic.
+     * @param classes the classes
+     * @param differences estimates how likely it is that versions of a class differ (higher is more likely)
+     * @param sizes the size of a class
+     */
+    static List<String> mostLikelyToDifferFirst(Collection<String> classes, ToIntFunction<String> differences, ToLongFunction<String> sizes) {
+        return classes.stream()
+            .sorted(Comparator.comparingInt(differences).reversed().thenComparingLong(sizes).thenComparing(clazz -> clazz))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Order the common classes of a pair of jars.
+     */
+    static List<String> mostLikelyToDifferFirst(Collection<String> classes, Map<String,ClassEntry> entries1, Map<String,ClassEntry> entries2) {
+        return mostLikelyToDifferFirst(classes, clazz -> differences(entries1.get(clazz), entries2.get(clazz)), clazz -> size(entries1.get(clazz), entries2.get(clazz)));
+    }
+
+    static long size(ClassEntry... entries) {
+        return Arrays.stream(entries).filter(Objects::nonNull).mapToLong(entry -> Math.max(0, entry.size())).max().orElse(0);
+    }
+
+    /**
+     * Check whether the verdict for a jar is settled, i.e. comparing more classes cannot make the jar equivalent.
+     * @param jarVerdict the worst verdict for the classes compared so far, or null
+     */
+    static boolean isSettled(ComparisonResult jarVerdict) {
+        return ENABLED && jarVerdict != null && jarVerdict.compareTo(ComparisonResult.NON_EQUIVALENT) >= 0;
+    }
+
+    /**
+     * Record that a pair of classes has not been compared as the verdict for its jar was already settled.
+     * @param size the size of the class, used to report the work skipped
+     */
+    static void skip(long size) {
+        skippedClasses.increment();
+        skippedBytes.add(size);
+    }
+
+    /**
+     * Record that a pair of jars has been settled before all of its classes were compared.
+     */
+    static void settled() {
+        settledJars.increment();
+    }
+
+    static void logStats() {
+        if (ENABLED) {
+            LOG.info("pairs of jars settled early (at least NON_EQUIVALENT, not included in the counts by verdict as skipped classes may have errors or timeouts): {}", settledJars.sum());
+            LOG.info("pairs of classes skipped: {} ({} KB of class files)", skippedClasses.sum(), skippedBytes.sum() / 1024);
+        }
+    }
+}
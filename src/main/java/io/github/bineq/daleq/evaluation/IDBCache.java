@@ -0,0 +1,276 @@
+package io.github.bineq.daleq.evaluation;
+
+import io.github.bineq.daleq.IOUtil;
+import io.github.bineq.daleq.Rules;
+import io.github.bineq.daleq.Souffle;
+import io.github.bineq.daleq.edb.FactExtractor;
+import io.github.bineq.daleq.evaluation.tools.Watchdog;
+import io.github.bineq.daleq.idb.IDB;
+import io.github.bineq.daleq.idb.IDBPrinter;
+import io.github.bineq.daleq.idb.IDBReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+/**
+ * Computes and serializes IDBs for classes, and reuses IDBs computed before.
+ * Each IDB printout is stamped with a fingerprint (idb-fingerprint.txt) of the rules the IDB depends on and the projection used.
+ * An existing IDB is only reused if its fingerprint matches, stale IDBs are recomputed.
+ * The fingerprint only covers the rules reachable from the output relations in the rule dependency graph (see RuleDependencies),
+ * so edits to other rules, or to comments and formatting, do not invalidate cached IDBs.
+ * The daleq version is not part of the fingerprint, change PROJECTION if a daleq upgrade changes the facts extracted or the projection.
+ * IDBs computed before fingerprints were introduced are recomputed, unless -DACCEPT_UNSTAMPED_IDB=true is set.
+ * With -DPROJECTED_ONLY=true , only the projected IDB used in comparisons is printed, the full IDB printout (idb-full.txt, which includes the provenance
+ * of facts) is neither rendered nor archived. Omit this setting if provenance is needed.
+ * @author jens dietrich
+ */
+public class IDBCache {
+
+    final static Logger LOG = LoggerFactory.getLogger(IDBCache.class);
+
+    public static final String ACCEPT_UNSTAMPED_IDB = "ACCEPT_UNSTAMPED_IDB";
+    static final boolean ACCEPT_UNSTAMPED = Boolean.getBoolean(ACCEPT_UNSTAMPED_IDB);
+
+    public static final String PROJECTED_ONLY = "PROJECTED_ONLY";
+    static final boolean PRINT_FULL_IDB = !Boolean.getBoolean(PROJECTED_ONLY);
+
+    static final String FINGERPRINT_FILE_NAME = "idb-fingerprint.txt";
+    static final String IDB_PROJECTED_FILE_NAME = "idb-projected.txt";
+    static final String EDB = "edb";
+    static final String IDB = "idb";
+    static final String MERGED_EDB_AND_RULES = "mergedEDBAndRules.souffle";
+    static final String IDB_FULL = "idb-full.txt";
+    static final String[] INTERMEDIATES = {EDB, IDB, MERGED_EDB_AND_RULES, IDB_FULL};
+
+    // IDB::project has no settings, change this if the projection used (or the fact extraction) changes
+    static final String PROJECTION = "project-default-v1";
+
+    static final String DALEQ_POM_PROPERTIES = "/META-INF/maven/io.github.bineq/daleq/pom.properties";
+
+    private static String fingerprint = null;
+
+    /**
+     * The fingerprint of the rules reachable from the output relations, and the projection.
+     */
+    static synchronized String getFingerprint() throws Exception {
+        if (fingerprint == null) {
+            RuleDependencies dependencies = RuleDependencies.parse(new String(readRules(Rules.defaultRules()), StandardCharsets.UTF_8));
+            String rules = Manifest.digest(dependencies.getRelevantStatements().getBytes(StandardCharsets.UTF_8));
+            fingerprint = Manifest.digest(String.join("\n", rules, PROJECTION).getBytes(StandardCharsets.UTF_8));
+            LOG.info("IDB fingerprint is {} ({} of {} rules reachable from {} output relations, rules digest {}, projection {}, daleq version {})", fingerprint,
+                dependencies.getRelevantRules().size(), dependencies.getRules().size(), dependencies.getOutputRelations().size(), rules, PROJECTION, getDaleqVersion());
+        }
+        return fingerprint;
+    }
+
+    // the rules are usually provided as a file, other representations are handled via their string representation
+    private static byte[] readRules(Object rules) throws IOException {
+        if (rules instanceof Path path) {
+            return Files.readAllBytes(path);
+        }
+        else if (rules instanceof File file) {
+            return Files.readAllBytes(file.toPath());
+        }
+        else if (rules instanceof URL url) {
+            try (InputStream in = url.openStream()) {
+                return in.readAllBytes();
+            }
+        }
+        return String.valueOf(rules).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String getDaleqVersion() {
+        try (InputStream in = Rules.class.getResourceAsStream(DALEQ_POM_PROPERTIES)) {
+            if (in != null) {
+                Properties properties = new Properties();
+                properties.load(in);
+                String version = properties.getProperty("version");
+                if (version != null) {
+                    return version;
+                }
+            }
+        }
+        catch (IOException x) {
+            LOG.warn("Cannot read daleq version from " + DALEQ_POM_PROPERTIES, x);
+        }
+        String version = Rules.class.getPackage().getImplementationVersion();
+        return version == null ? "unknown" : version;
+    }
+
+    /**
+     * Compute the IDB for a class, or reuse the IDB computed before if it is not stale.
+     * @param gav the gav
+     * @param provider the provider
+     * @param className the class (file) name
+     * @param bytecode the bytecode
+     * @param root the folder for the IDB printouts, and the EDB, IDB and intermediate files retained
+     * @param retentionPolicy what to do with EDB, IDB and intermediate files
+     * @param manifest the manifest to record the IDB printout in
+     * @return the projected IDB printout
+     */
+    static String computeAndSerializeIDB (String gav, String provider, String className, byte[] bytecode, Path root, RunEvaluation.DB_RETENTION_POLICY retentionPolicy, Manifest manifest) throws Exception {
+
+        Path idbProjectedPrintout = root.resolve(IDB_PROJECTED_FILE_NAME);
+        Path fingerprintFile = root.resolve(FINGERPRINT_FILE_NAME);
+
+        if (Files.exists(idbProjectedPrintout)) {
+            if (isCurrent(fingerprintFile)) {
+                LOG.info("Using already computed IDB (projected printout) {}", idbProjectedPrintout);
+                String report = Files.readAllLines(idbProjectedPrintout).stream().collect(Collectors.joining(System.lineSeparator()));
+                return report;
+            }
+            LOG.info("Recomputing stale IDB (projected printout) {}", idbProjectedPrintout);
+            deleteArchives(root);
+        }
+
+        long time = System.currentTimeMillis();
+        Files.createDirectories(root);
+
+        // intermediate files are created in a scratch folder if set, see Workspace
+        Path work = Workspace.isEnabled() ? Workspace.acquire() : root;
+        try {
+            return computeAndSerializeIDB(gav, provider, className, bytecode, root, work, time, retentionPolicy, manifest);
+        }
+        finally {
+            if (work != root) {
+                Workspace.release(work);
+            }
+        }
+    }
+
+    private static String computeAndSerializeIDB (String gav, String provider, String className, byte[] bytecode, Path root, Path work, long time, RunEvaluation.DB_RETENTION_POLICY retentionPolicy, Manifest manifest) throws Exception {
+        Path edbRoot = work.resolve(EDB);
+        Path edbFactDir = edbRoot.resolve( "facts");
+        Path edbDef = edbRoot.resolve("db.souffle");
+        Path idbRoot = work.resolve(IDB);
+        Path idbFactDir = idbRoot.resolve( "facts");
+        Path mergedEDBAndRules = work.resolve(MERGED_EDB_AND_RULES);
+        Path idbPrintout = work.resolve(IDB_FULL);
+        Path idbProjectedPrintout = root.resolve(IDB_PROJECTED_FILE_NAME);
+        Path fingerprintFile = root.resolve(FINGERPRINT_FILE_NAME);
+
+        Files.createDirectories(edbFactDir);
+
+        // copy bytecode to file as fact extraction used files as input
+        Path classFile = work.resolve(className.substring(className.lastIndexOf("/") + 1));
+        Files.write(classFile, bytecode);
+
+        // build EDB
+        if (Files.exists(edbDef)) {
+            IOUtil.deleteDir(edbFactDir);
+        }
+        else {
+            Files.createDirectories(edbFactDir);
+        }
+
+        try {
+            long start = System.nanoTime();
+            Throttle.call(Throttle.CPU, () -> {
+                FactExtractor.extractAndExport(classFile, edbDef, edbFactDir, true);
+                return null;
+            });
+            StageTimer.stop(StageTimer.Stage.EDB_EXTRACTION,start);
+            LOG.info("EBD extracted for {} in {} provided by {} in dir {}", className, gav, provider, edbRoot);
+
+            if (Files.exists(idbFactDir)) {
+                IOUtil.deleteDir(idbFactDir);
+            } else {
+                Files.createDirectories(idbFactDir);
+            }
+
+            start = System.nanoTime();
+            try (ProcessGovernor.Lease lease = ProcessGovernor.acquire(ProcessGovernor.Tool.SOUFFLE, mergedEDBAndRules)) {
+                Watchdog.run(() -> {
+                    Souffle.createIDB(edbDef, Rules.defaultRules(), edbFactDir, idbFactDir, mergedEDBAndRules);
+                    return null;
+                }, Watchdog.SOUFFLE_TIMEOUT_IN_SEC, mergedEDBAndRules);
+            }
+            StageTimer.stop(StageTimer.Stage.SOUFFLE,start);
+            LOG.info("IBD computed for {} in {} provided by {} in dir {}", className, gav, provider, idbFactDir);
+
+            // there might be a race condition is souffle that some background thread is still writing the IDB when createIDB returns
+            // there have been cased when facts where missing, leading to NPEs when printing the IDB
+            // but upon inspection, those facts where there
+            // try to mitigate with this for now
+            Thread.sleep(500);
+
+            // load IDB
+            start = System.nanoTime();
+            String[] printouts = Throttle.call(Throttle.CPU, () -> {
+                IDB idb = IDBReader.read(idbFactDir);
+                return new String[]{PRINT_FULL_IDB ? IDBPrinter.print(idb) : null, IDBPrinter.print(idb.project())};
+            });
+            String idbOut = printouts[0];
+            String idbProjectedOut = printouts[1];
+            StageTimer.stop(StageTimer.Stage.IDB_PRINTING,start);
+
+            if (idbOut != null) {
+                Files.write(idbPrintout, idbOut.getBytes());
+            }
+            Files.write(idbProjectedPrintout, idbProjectedOut.getBytes());
+            Files.writeString(fingerprintFile, getFingerprint());
+
+            // cleanup !
+            RunEvaluation.cleanupDBDir(edbRoot, retentionPolicy);
+            RunEvaluation.cleanupDBDir(idbRoot, retentionPolicy);
+            RunEvaluation.cleanupFile(mergedEDBAndRules, retentionPolicy);
+            if (idbOut != null) {
+                RunEvaluation.cleanupFile(idbPrintout, retentionPolicy);
+            }
+            if (work != root) {
+                moveToStore(work, root);
+                // the copy of the class file is used by analysis tools, e.g. CheckEvaluationResults
+                Workspace.moveToStore(classFile, root.resolve(classFile.getFileName()));
+            }
+
+            long duration = System.currentTimeMillis() - time;
+            Path timeTaken = root.resolve("computation-time-in-ms.txt");
+            Files.write(timeTaken, String.valueOf(duration).getBytes());
+            manifest.addArtifact(gav, className, provider, "daleq", idbProjectedPrintout, duration, idbProjectedOut.getBytes());
+
+            return idbProjectedOut;
+        }
+        catch (Exception e) {
+            Path errorLog = root.resolve("error.txt");
+            try (PrintWriter out = new PrintWriter(errorLog.toFile())) {
+                e.printStackTrace(out);
+            }
+            throw e;
+        }
+    }
+
+    // the files and folders retained (depending on the retention policy), and their archives
+    private static void moveToStore(Path work, Path root) throws IOException {
+        for (String name : INTERMEDIATES) {
+            for (String fileName : new String[]{name, name + ".zip"}) {
+                if (Files.exists(work.resolve(fileName))) {
+                    Workspace.moveToStore(work.resolve(fileName), root.resolve(fileName));
+                }
+            }
+        }
+    }
+
+    private static boolean isCurrent(Path fingerprintFile) throws Exception {
+        if (!Files.exists(fingerprintFile)) {
+            return ACCEPT_UNSTAMPED;
+        }
+        return Files.readString(fingerprintFile).trim().equals(getFingerprint());
+    }
+
+    // archives created by the ZIP retention policy when the IDB was computed before
+    private static void deleteArchives(Path root) throws IOException {
+        for (String name : INTERMEDIATES) {
+            Files.deleteIfExists(root.resolve(name + ".zip"));
+        }
+    }
+}
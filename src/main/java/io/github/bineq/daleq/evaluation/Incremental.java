@@ -0,0 +1,122 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Support for incremental evaluation (-DINCREMENTAL=true) when the dataset indexes change, using the manifest of previous runs in the output folder.
+ * Pairs of jars to be compared are computed from the new indexes as usual (same GAV, same sources, RunEvaluation::select),
+ * so pairs of jars no longer selected are dropped, and newly selected pairs are evaluated.
+ * For a selected pair of jars that has been fully compared before (see Manifest.JARS), the previous verdicts are carried forward
+ * if the MD5s of both jars in the index and the IDB fingerprint (i.e. the rules the IDBs depend on, see IDBCache) are unchanged.
+ * Only the verdicts recorded in the run that compared the pair of jars are carried forward, verdicts for earlier versions of the jars
+ * (e.g. for classes that have been removed since) and verdicts recorded by partial runs (retries, samples, replays of dead letters) are not.
+ * Other pairs of jars are evaluated.
+ * @author jens dietrich
+ */
+public class Incremental {
+
+    final static Logger LOG = LoggerFactory.getLogger(Incremental.class);
+
+    public static final String INCREMENTAL = "INCREMENTAL";
+    static final boolean ENABLED = Boolean.getBoolean(INCREMENTAL);
+
+    /**
+     * The results of a previous comparison of a pair of jars.
+     */
+    record CarriedForward(Manifest.Jars jars, List<Manifest.Verdict> verdicts) {}
+
+    private final Map<String,Manifest.Jars> jars;
+    // verdicts by gav and pair of providers
+    private final Map<String,List<Manifest.Verdict>> verdicts;
+    private final String fingerprint;
+
+    private Incremental(Map<String,Manifest.Jars> jars, Map<String,List<Manifest.Verdict>> verdicts, String fingerprint) {
+        this.jars = jars;
+        this.verdicts = verdicts;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Load the results of previous runs if -DINCREMENTAL=true is set.
+     * @param root the output folder
+     * @return the results of previous runs, or null if incremental mode is not enabled
+     */
+    static Incremental loadIfEnabled(Path root) throws Exception {
+        if (!ENABLED) {
+            return null;
+        }
+        if (!Manifest.exists(root)) {
+            LOG.warn("No manifest found in {}, all pairs of jars will be evaluated", root);
+            return new Incremental(Map.of(), Map.of(), IDBCache.getFingerprint());
+        }
+        Map<String,Manifest.Jars> jars = Manifest.readJars(root);
+        Map<String,List<Manifest.Verdict>> verdicts = Manifest.readVerdictsOfJars(root, jars);
+        return new Incremental(jars, verdicts, IDBCache.getFingerprint());
+    }
+
+    /**
+     * Get the results carried forward for all pairs of jars, before any pair of jars is compared.
+     * Records are matched by pair of providers (see RunEvaluation::findMatchingRecordsWithSameSources), so the pairs of jars are the same as the ones compared.
+     * @param providers the providers
+     * @param setsOfRecords the records for each provider
+     * @param sourceEquivalenceMode the source equivalence mode
+     * @param selected decides which pairs of jars are selected for this run, results are only carried forward for those
+     * @return the results carried forward, keyed by Manifest.key(gav, provider1, provider2)
+     */
+    Map<String,CarriedForward> getCarriedForward(List<String> providers, List<Set<Record>> setsOfRecords, int sourceEquivalenceMode, NWayComparison.PairFilter selected) throws IOException {
+        Map<String,CarriedForward> carriedForward = new LinkedHashMap<>();
+        for (int i = 0; i < providers.size(); i++) {
+            String provider1 = providers.get(i);
+            for (int j = 0; j < i; j++) {
+                String provider2 = providers.get(j);
+                long start = System.nanoTime();
+                Set<PairOfRecords> pairsOfRecords = RunEvaluation.findMatchingRecordsWithSameSources(provider1, provider2, setsOfRecords.get(i), setsOfRecords.get(j), sourceEquivalenceMode);
+                StageTimer.stop(StageTimer.Stage.MATCH_RECORDS,start);
+                for (PairOfRecords pairOfRecords : pairsOfRecords) {
+                    if (selected.include(provider1, provider2, pairOfRecords)) {
+                        CarriedForward previous = getCarriedForward(provider1, provider2, pairOfRecords);
+                        if (previous != null) {
+                            carriedForward.put(Manifest.key(pairOfRecords.left().gav(), provider1, provider2), previous);
+                        }
+                    }
+                }
+            }
+        }
+        LOG.info("Results of previous runs carried forward for {} pairs of jars", carriedForward.size());
+        return carriedForward;
+    }
+
+    /**
+     * Get the results of a previous comparison of a pair of jars.
+     * @return the results, or null if the jars have not been fully compared before, or have changed since
+     */
+    CarriedForward getCarriedForward(String provider1, String provider2, PairOfRecords pairOfRecords) {
+        String key = Manifest.key(pairOfRecords.left().gav(), provider1, provider2);
+        Manifest.Jars previous = jars.get(key);
+        if (previous == null) {
+            return null;
+        }
+        if (!previous.fingerprint().equals(fingerprint)
+            || !previous.md5OfJar1().equals(pairOfRecords.left().binMainMD5())
+            || !previous.md5OfJar2().equals(pairOfRecords.right().binMainMD5())) {
+            LOG.debug("Jars for {} provided by {} and {} have changed, will be re-evaluated", pairOfRecords.left().gav(), provider1, provider2);
+            return null;
+        }
+        if (previous.run() == null) {
+            LOG.debug("Jars for {} provided by {} and {} were compared by an earlier version without runs in the manifest, will be re-evaluated", pairOfRecords.left().gav(), provider1, provider2);
+            return null;
+        }
+        List<Manifest.Verdict> previousVerdicts = verdicts.getOrDefault(key, List.of());
+        long classes = previousVerdicts.stream().map(Manifest.Verdict::clazz).distinct().count();
+        if (classes > previous.classes()) {
+            LOG.warn("Manifest has verdicts for {} classes of {} provided by {} and {}, but only {} classes were compared, will be re-evaluated", classes, pairOfRecords.left().gav(), provider1, provider2, previous.classes());
+            return null;
+        }
+        return new CarriedForward(previous, previousVerdicts);
+    }
+}
@@ -0,0 +1,198 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache for the classes in jars, with LRU eviction.
+ * Jars are weighted by the uncompressed size of their class files, i.e. an upper bound of the bytecode retained (see Content::release).
+ * The limit (in MB) can be set with -DJAR_CACHE_LIMIT=<mb> , the default is 1024.
+ * If the pairs of jars to be processed are announced with expect(), jars are also evicted as soon as no upcoming pair needs them.
+ * @author jens dietrich
+ */
+public class JarCache {
+
+    final static Logger LOG = LoggerFactory.getLogger(JarCache.class);
+
+    public static final String JAR_CACHE_LIMIT = "JAR_CACHE_LIMIT";
+    static final long DEFAULT_LIMIT_IN_BYTES = Long.getLong(JAR_CACHE_LIMIT, 1024) * 1024 * 1024;
+
+    private record CachedJar(Map<String,Content> classes, Map<String,Long> classSizes, long weight) {}
+
+    private final long limitInBytes;
+    // access order, the eldest entry is the least recently used
+    private final LinkedHashMap<Path,CachedJar> jars = new LinkedHashMap<>(16, 0.75f, true);
+    // number of pending uses for jars announced with expect()
+    private final Map<Path,Integer> pendingUses = new HashMap<>();
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    // not a monitor, so that virtual threads waiting for the cache are not pinned to their carrier threads
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public JarCache() {
+        this(DEFAULT_LIMIT_IN_BYTES);
+    }
+
+    public JarCache(long limitInBytes) {
+        this.limitInBytes = limitInBytes;
+    }
+
+    /**
+     * Announce upcoming work, each pair of jars must be released when it has been processed.
+     */
+    public void expect(Collection<PairOfRecords> schedule) {
+        lock.lock();
+        try {
+            for (PairOfRecords pairOfRecords : schedule) {
+                expect(pairOfRecords.left().binMainFile());
+                expect(pairOfRecords.right().binMainFile());
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Announce an upcoming use of a jar, the jar must be released when it has been used.
+     */
+    public void expect(Path jar) {
+        lock.lock();
+        try {
+            pendingUses.merge(jar, 1, Integer::sum);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Signal that a jar announced with expect() has been used, it is evicted if no more uses are pending.
+     */
+    public void release(Path jar) {
+        lock.lock();
+        try {
+            Integer count = pendingUses.computeIfPresent(jar, (k, v) -> v - 1);
+            if (count != null && count <= 0) {
+                pendingUses.remove(jar);
+                evict(jar);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the classes in a jar.
+     * @return a map associating class file names with their content
+     */
+    public Map<String,Content> getClasses(Path jar) throws IOException {
+        return get(jar).classes();
+    }
+
+    /**
+     * Get the uncompressed sizes of the class files in a jar.
+     * @return a map associating class file names with their sizes in bytes (0 if unknown)
+     */
+    public Map<String,Long> getClassSizes(Path jar) throws IOException {
+        return get(jar).classSizes();
+    }
+
+    private CachedJar get(Path jar) throws IOException {
+        lock.lock();
+        try {
+            CachedJar cachedJar = jars.get(jar);
+            if (cachedJar != null) {
+                hits = hits + 1;
+                return cachedJar;
+            }
+            misses = misses + 1;
+        }
+        finally {
+            lock.unlock();
+        }
+        // load outside the lock, so that threads do not wait for each other
+        Map<String,Content> classes = RunEvaluation.loadClasses(jar);
+        Map<String,Long> classSizes = Scheduler.classSizes(jar);
+        CachedJar cachedJar = new CachedJar(classes, classSizes, classSizes.values().stream().mapToLong(s -> s).sum());
+        lock.lock();
+        try {
+            CachedJar previous = jars.putIfAbsent(jar, cachedJar);
+            if (previous != null) {
+                return previous;  // loaded concurrently by another thread
+            }
+            weight = weight + cachedJar.weight();
+            Iterator<Map.Entry<Path,CachedJar>> iter = jars.entrySet().iterator();
+            while (weight > limitInBytes && iter.hasNext()) {
+                Map.Entry<Path,CachedJar> eldest = iter.next();
+                if (!eldest.getKey().equals(jar)) {
+                    iter.remove();
+                    weight = weight - eldest.getValue().weight();
+                    evictions = evictions + 1;
+                    LOG.debug("Evicted {} from jar cache", eldest.getKey());
+                }
+            }
+            return cachedJar;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void evict(Path jar) {
+        CachedJar cachedJar = jars.remove(jar);
+        if (cachedJar != null) {
+            weight = weight - cachedJar.weight();
+            evictions = evictions + 1;
+            LOG.debug("Evicted {} from jar cache, no more uses pending", jar);
+        }
+    }
+
+    public long getHits() {
+        lock.lock();
+        try {
+            return hits;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMisses() {
+        lock.lock();
+        try {
+            return misses;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEvictions() {
+        lock.lock();
+        try {
+            return evictions;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void logStats() {
+        lock.lock();
+        try {
+            LOG.info("jar cache: {} hits, {} misses, {} evictions, {} jars resident ({} MB)", hits, misses, evictions, jars.size(), weight / (1024 * 1024));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
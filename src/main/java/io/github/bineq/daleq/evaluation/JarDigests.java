@@ -0,0 +1,79 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects pairs of byte-identical jars, using the MD5s in the dataset index.
+ * The MD5s in the index are checked against the jar files, so that stale indexes or corrupted downloads do not lead to wrong verdicts.
+ * For identical jars, all classes are EQUAL, and the runners only read the class names from the central directory, without inflating any entries.
+ * @author jens dietrich
+ */
+public class JarDigests {
+
+    final static Logger LOG = LoggerFactory.getLogger(JarDigests.class);
+
+    private static final Map<Path,String> digests = new ConcurrentHashMap<>();
+    private static final LongAdder identicalPairs = new LongAdder();
+    private static final LongAdder mismatches = new LongAdder();
+
+    /**
+     * Check whether the jars for two records are byte-identical.
+     * @return true if both records have the same MD5 in the index, and both jar files have this MD5
+     */
+    static boolean isIdentical(Record record1, Record record2) {
+        String md5 = record1.binMainMD5();
+        if (md5 == null || md5.isBlank() || !md5.equalsIgnoreCase(record2.binMainMD5())) {
+            return false;
+        }
+        try {
+            if (md5.equalsIgnoreCase(md5(record1.binMainFile())) && md5.equalsIgnoreCase(md5(record2.binMainFile()))) {
+                identicalPairs.increment();
+                return true;
+            }
+            mismatches.increment();
+            LOG.warn("MD5 in index does not match jar for {}, classes will be compared", record1.gav());
+            return false;
+        }
+        catch (IOException x) {
+            LOG.warn("Cannot compute MD5 for jars of " + record1.gav() + ", classes will be compared", x);
+            return false;
+        }
+    }
+
+    // jars are often part of several pairs, so digests are cached
+    private static String md5(Path jar) throws IOException {
+        String digest = digests.get(jar);
+        if (digest == null) {
+            try (InputStream in = Files.newInputStream(jar)) {
+                MessageDigest md5 = MessageDigest.getInstance("MD5");
+                byte[] buffer = new byte[64 * 1024];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    md5.update(buffer, 0, length);
+                }
+                digest = HexFormat.of().formatHex(md5.digest());
+            }
+            catch (NoSuchAlgorithmException x) {
+                throw new IllegalStateException(x);
+            }
+            digests.put(jar, digest);
+        }
+        return digest;
+    }
+
+    public static void logStats() {
+        LOG.info("pairs of byte-identical jars (classes not compared): {}, MD5s in index not matching jars: {}", identicalPairs.sum(), mismatches.sum());
+    }
+}
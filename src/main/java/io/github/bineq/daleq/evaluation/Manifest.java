@@ -0,0 +1,237 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Manifest of the artifacts and verdicts produced by an evaluation run, written to the output folder while the runners work.
+ * Analysis tools use the manifest to locate results instead of walking the output folder.
+ * Format: tab-separated, rows are appended, rows for the same artifact or verdict written later (e.g. by a rerun) override earlier rows.
+ * <ul>
+ *     <li>ARTIFACT gav class provider tool path time-in-ms digest -- path is relative to the output folder, time is -1 if unknown, digest is the SHA-256 of the content</li>
+ *     <li>VERDICT gav class provider1 provider2 tool result diff run -- diff is the path of the diff file relative to the output folder, or - if there is none</li>
+ *     <li>JARS gav provider1 provider2 md5-1 md5-2 classes fingerprint run -- written when all classes of a pair of jars have been compared,
+ *     with the MD5s of the jars from the dataset index, the number of classes compared and the IDB fingerprint (see IDBCache, Incremental)</li>
+ * </ul>
+ * The run is the time (in ms) the manifest was opened by a runner, and ties verdicts to the pair of jars compared in the same run.
+ * Rows written by earlier versions have no run.
+ * @author jens dietrich
+ */
+public class Manifest implements AutoCloseable {
+
+    final static Logger LOG = LoggerFactory.getLogger(Manifest.class);
+
+    public static final String FILE_NAME = "manifest.tsv";
+    public static final String ARTIFACT = "ARTIFACT";
+    public static final String VERDICT = "VERDICT";
+    public static final String JARS = "JARS";
+    static final String NONE = "-";
+
+    public record Artifact(String gav, String clazz, String provider, String tool, Path path, long timeInMs, String digest) {
+        String key() {
+            return String.join("\t", gav, clazz, provider, tool);
+        }
+    }
+
+    // diff is null if there is no diff, run is null for rows written by earlier versions
+    public record Verdict(String gav, String clazz, String provider1, String provider2, String tool, ComparisonResult result, Path diff, String run) {
+        String key() {
+            return String.join("\t", gav, clazz, provider1, provider2, tool);
+        }
+    }
+
+    public record Jars(String gav, String provider1, String provider2, String md5OfJar1, String md5OfJar2, int classes, String fingerprint, String run) {
+        String key() {
+            return Manifest.key(gav, provider1, provider2);
+        }
+    }
+
+    private final Path root;
+    private final BufferedWriter out;
+    private final String run = String.valueOf(System.currentTimeMillis());
+
+    private Manifest(Path root, BufferedWriter out) {
+        this.root = root;
+        this.out = out;
+    }
+
+    /**
+     * Open the manifest in an output folder for appending.
+     * @param root the output folder
+     * @return the manifest
+     */
+    static Manifest open(Path root) throws IOException {
+        BufferedWriter out = Files.newBufferedWriter(root.resolve(FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return new Manifest(root, out);
+    }
+
+    /**
+     * Record an artifact.
+     * @param path the artifact file
+     * @param content the content of the artifact, used to compute the digest
+     */
+    void addArtifact(String gav, String clazz, String provider, String tool, Path path, long timeInMs, byte[] content) {
+        write(String.join("\t", ARTIFACT, gav, clazz, provider, tool, root.relativize(path).toString(), String.valueOf(timeInMs), digest(content)));
+    }
+
+    /**
+     * Record a verdict.
+     * @param diff the diff file, or null if there is none
+     */
+    void addVerdict(String gav, String clazz, String provider1, String provider2, String tool, ComparisonResult result, Path diff) {
+        write(String.join("\t", VERDICT, gav, clazz, provider1, provider2, tool, result.name(), diff == null ? NONE : root.relativize(diff).toString(), run));
+    }
+
+    /**
+     * Record that all classes of a pair of jars have been compared.
+     */
+    void addJars(String gav, String provider1, String provider2, String md5OfJar1, String md5OfJar2, int classes, String fingerprint) {
+        write(String.join("\t", JARS, gav, provider1, provider2, md5OfJar1, md5OfJar2, String.valueOf(classes), fingerprint, run));
+    }
+
+    // rows are flushed immediately, so that the manifest can be used while the evaluation is still running
+    private synchronized void write(String line) {
+        try {
+            out.write(line);
+            out.newLine();
+            out.flush();
+        } catch (IOException e) {
+            LOG.error("Error writing to manifest: " + line, e);
+        }
+    }
+
+    /**
+     * The run recorded in VERDICT and JARS rows written by this manifest.
+     */
+    String getRun() {
+        return run;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    public static boolean exists(Path root) {
+        return Files.exists(root.resolve(FILE_NAME));
+    }
+
+    /**
+     * Read the artifacts from the manifest in an output folder.
+     * @param root the output folder
+     * @return the artifacts (paths are resolved against root), or null if there is no manifest
+     */
+    public static List<Artifact> readArtifacts(Path root) throws IOException {
+        if (!exists(root)) {
+            return null;
+        }
+        Map<String,Artifact> artifacts = new LinkedHashMap<>();
+        try (Stream<String> lines = Files.lines(root.resolve(FILE_NAME))) {
+            lines.filter(line -> line.startsWith(ARTIFACT + '\t'))
+                .map(line -> line.split("\t"))
+                .filter(tokens -> tokens.length == 8)  // the last line may be incomplete if the manifest is still being written
+                .map(tokens -> new Artifact(tokens[1], tokens[2], tokens[3], tokens[4], root.resolve(tokens[5]), Long.parseLong(tokens[6]), tokens[7]))
+                .forEach(artifact -> artifacts.put(artifact.key(), artifact));
+        }
+        LOG.info("{} artifacts read from manifest in {}", artifacts.size(), root);
+        return new ArrayList<>(artifacts.values());
+    }
+
+    /**
+     * Read the verdicts from the manifest in an output folder.
+     * @param root the output folder
+     * @return the verdicts (paths are resolved against root), or null if there is no manifest
+     */
+    public static List<Verdict> readVerdicts(Path root) throws IOException {
+        if (!exists(root)) {
+            return null;
+        }
+        Map<String,Verdict> verdicts = new LinkedHashMap<>();
+        try (Stream<String> lines = Files.lines(root.resolve(FILE_NAME))) {
+            verdicts(root, lines).forEach(verdict -> verdicts.put(verdict.key(), verdict));
+        }
+        LOG.info("{} verdicts read from manifest in {}", verdicts.size(), root);
+        return new ArrayList<>(verdicts.values());
+    }
+
+    /**
+     * Read the pairs of jars for which all classes have been compared from the manifest in an output folder.
+     * @param root the output folder
+     * @return a map, keys are built with key(gav,provider1,provider2), or null if there is no manifest
+     */
+    public static Map<String,Jars> readJars(Path root) throws IOException {
+        if (!exists(root)) {
+            return null;
+        }
+        Map<String,Jars> jars = new HashMap<>();
+        try (Stream<String> lines = Files.lines(root.resolve(FILE_NAME))) {
+            lines.filter(line -> line.startsWith(JARS + '\t'))
+                .map(line -> line.split("\t"))
+                .filter(tokens -> tokens.length == 8 || tokens.length == 9)
+                .map(tokens -> new Jars(tokens[1], tokens[2], tokens[3], tokens[4], tokens[5], Integer.parseInt(tokens[6]), tokens[7], tokens.length == 9 ? tokens[8] : null))
+                .forEach(pairOfJars -> jars.put(pairOfJars.key(), pairOfJars));
+        }
+        LOG.info("{} pairs of jars read from manifest in {}", jars.size(), root);
+        return jars;
+    }
+
+    /**
+     * Read the verdicts recorded in the same run as the pairs of jars they belong to, i.e. the verdicts for the jars as they were
+     * when the JARS row was written. Verdicts recorded for earlier versions of the jars, or by partial runs (e.g. retries), are ignored.
+     * @param root the output folder
+     * @param jars the pairs of jars, see readJars
+     * @return the verdicts by key(gav,provider1,provider2)
+     */
+    public static Map<String,List<Verdict>> readVerdictsOfJars(Path root, Map<String,Jars> jars) throws IOException {
+        Map<String,Verdict> verdicts = new LinkedHashMap<>();
+        try (Stream<String> lines = Files.lines(root.resolve(FILE_NAME))) {
+            verdicts(root, lines)
+                .filter(verdict -> {
+                    Jars pairOfJars = jars.get(key(verdict.gav(), verdict.provider1(), verdict.provider2()));
+                    return pairOfJars != null && pairOfJars.run() != null && pairOfJars.run().equals(verdict.run());
+                })
+                .forEach(verdict -> verdicts.put(verdict.key(), verdict));
+        }
+        return verdicts.values().stream().collect(Collectors.groupingBy(verdict -> key(verdict.gav(), verdict.provider1(), verdict.provider2())));
+    }
+
+    private static Stream<Verdict> verdicts(Path root, Stream<String> lines) {
+        return lines.filter(line -> line.startsWith(VERDICT + '\t'))
+            .map(line -> line.split("\t"))
+            .filter(tokens -> tokens.length == 8 || tokens.length == 9)  // the last line may be incomplete if the manifest is still being written
+            .map(tokens -> new Verdict(tokens[1], tokens[2], tokens[3], tokens[4], tokens[5], ComparisonResult.valueOf(tokens[6]), tokens[7].equals(NONE) ? null : root.resolve(tokens[7]), tokens.length == 9 ? tokens[8] : null));
+    }
+
+    /**
+     * Index verdicts for a tool by gav, class and pair of providers.
+     * @return a map, keys are built with key(gav,clazz,provider1,provider2)
+     */
+    public static Map<String,Verdict> indexVerdicts(List<Verdict> verdicts, String tool) {
+        return verdicts.stream()
+            .filter(verdict -> verdict.tool().equals(tool))
+            .collect(Collectors.toMap(verdict -> key(verdict.gav(), verdict.clazz(), verdict.provider1(), verdict.provider2()), verdict -> verdict, (v1, v2) -> v2));
+    }
+
+    public static String key(String... values) {
+        return String.join("\t", values);
+    }
+
+    public static String digest(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Support for comparing the jars built by all providers for a GAV in one go (N-way mode), enabled with -DNWAY=true .
+ * Instead of processing each pair of providers separately, the work is grouped by GAV.
+ * The normal form (IDB, javap or jnorm printout) of each version of a class is computed at most once, and
+ * represented by its digest. Providers with the same digest form an equivalence class, and the verdicts for all pairs of providers
+ * are derived from those classes. The number of normal forms computed grows linearly with the number of providers.
+ * The pairs of jars compared, and the verdicts reported, are the same as in pairwise mode.
+ * @author jens dietrich
+ */
+public class NWayComparison {
+
+    final static Logger LOG = LoggerFactory.getLogger(NWayComparison.class);
+
+    public static final String NWAY = "NWAY";
+    static final boolean ENABLED = Boolean.getBoolean(NWAY);
+
+    /**
+     * A pair of providers, in the order used by the runners (and in results).
+     */
+    record ProviderPair(String provider1, String provider2) {}
+
+    /**
+     * The work for a GAV: the records for each provider, and the pairs of providers to be compared.
+     */
+    record GAVWork(String gav, Map<String,Record> records, List<ProviderPair> pairs) {
+        Set<Path> jars() {
+            return records.values().stream().map(Record::binMainFile).collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * Computes the normal form for the version of a class built by a provider.
+     */
+    @FunctionalInterface
+    interface Computation {
+        String compute(String provider) throws Exception;
+    }
+
+    /**
+     * The normal form of a class, or the reason (TIMEOUT or ERROR) why it could not be computed.
+     */
+    record NormalForm(String text, String digest, ComparisonResult failure) {
+        static NormalForm compute(Computation computation, String provider) {
+            try {
+                String text = computation.compute(provider);
+                assert text != null;
+                return new NormalForm(text, Manifest.digest(text.getBytes(StandardCharsets.UTF_8)), null);
+            }
+            catch (TimeoutException e) {
+                return new NormalForm(null, null, ComparisonResult.TIMEOUT);
+            }
+            catch (Exception e) {
+                LOG.debug("Error computing normal form for " + provider, e);
+                return new NormalForm(null, null, ComparisonResult.ERROR);
+            }
+        }
+    }
+
+    /**
+     * The normal forms of the versions of a class built by different providers, computed on demand and at most once per provider.
+     * Not thread-safe, the versions of a class are compared by the same thread.
+     */
+    static class NormalForms {
+        private final Computation computation;
+        private final Map<String,NormalForm> normalForms = new HashMap<>();
+
+        NormalForms(Computation computation) {
+            this.computation = computation;
+        }
+
+        NormalForm get(String provider) {
+            return normalForms.computeIfAbsent(provider, p -> NormalForm.compute(computation, p));
+        }
+
+        /**
+         * Compare the versions built by two providers, if they have different bytecode.
+         * If a normal form cannot be computed, the result is the failure for the first provider for which this happens (like in pairwise mode).
+         * @return EQUIVALENT, NON_EQUIVALENT, TIMEOUT or ERROR
+         */
+        ComparisonResult compare(String provider1, String provider2) {
+            NormalForm normalForm1 = get(provider1);
+            if (normalForm1.failure() != null) {
+                return normalForm1.failure();
+            }
+            NormalForm normalForm2 = get(provider2);
+            if (normalForm2.failure() != null) {
+                return normalForm2.failure();
+            }
+            return normalForm1.digest().equals(normalForm2.digest()) ? ComparisonResult.EQUIVALENT : ComparisonResult.NON_EQUIVALENT;
+        }
+
+        /**
+         * The equivalence classes of the providers compared so far, keyed by digest. Providers with failures are not included.
+         */
+        Map<String,Set<String>> getEquivalenceClasses() {
+            Map<String,Set<String>> equivalenceClasses = new TreeMap<>();
+            normalForms.forEach((provider, normalForm) -> {
+                if (normalForm.failure() == null) {
+                    equivalenceClasses.computeIfAbsent(normalForm.digest(), d -> new TreeSet<>()).add(provider);
+                }
+            });
+            return equivalenceClasses;
+        }
+    }
+
+    /**
+     * Split off the pairs of byte-identical jars (see JarDigests), all their classes are EQUAL and they are processed without loading classes.
+     * @param work the work for a GAV
+     * @param identicalJars collects the records for pairs of identical jars
+     * @return the work for the remaining pairs, only with the records needed for those
+     */
+    static GAVWork withoutIdenticalJars(GAVWork work, Map<ProviderPair,PairOfRecords> identicalJars) {
+        List<ProviderPair> pairs = new ArrayList<>();
+        Map<String,Record> records = new LinkedHashMap<>();
+        for (ProviderPair pair : work.pairs()) {
+            Record record1 = work.records().get(pair.provider1());
+            Record record2 = work.records().get(pair.provider2());
+            if (JarDigests.isIdentical(record1, record2)) {
+                identicalJars.put(pair, new PairOfRecords(record1, record2));
+            }
+            else {
+                pairs.add(pair);
+                records.put(pair.provider1(), record1);
+                records.put(pair.provider2(), record2);
+            }
+        }
+        return new GAVWork(work.gav(), records, pairs);
+    }
+
+    /**
+     * Decides whether a pair of jars is compared, e.g. used for retries and incremental evaluation.
+     */
+    @FunctionalInterface
+    interface PairFilter {
+        boolean include(String provider1, String provider2, PairOfRecords pairOfRecords);
+    }
+
+    /**
+     * Group the matching records for all pairs of providers by GAV.
+     * Records are matched by pair of providers (see RunEvaluation::findMatchingRecordsWithSameSources), so the jars compared are the same as in pairwise mode.
+     * @param providers the providers
+     * @param setsOfRecords the records for each provider
+     * @param sourceEquivalenceMode the source equivalence mode
+     * @param filter decides which pairs of jars are compared
+     * @return the work for each GAV, most expensive first
+     */
+    static List<GAVWork> schedule(List<String> providers, List<Set<Record>> setsOfRecords, int sourceEquivalenceMode, PairFilter filter) throws IOException {
+        Map<String,Map<String,Record>> recordsByGAV = new HashMap<>();
+        Map<String,List<ProviderPair>> pairsByGAV = new HashMap<>();
+        for (int i = 0; i < providers.size(); i++) {
+            String provider1 = providers.get(i);
+            for (int j = 0; j < i; j++) {
+                String provider2 = providers.get(j);
+                long start = System.nanoTime();
+                Set<PairOfRecords> pairsOfRecords = RunEvaluation.findMatchingRecordsWithSameSources(provider1, provider2, setsOfRecords.get(i), setsOfRecords.get(j), sourceEquivalenceMode);
+                StageTimer.stop(StageTimer.Stage.MATCH_RECORDS,start);
+                for (PairOfRecords pairOfRecords : pairsOfRecords) {
+                    String gav = pairOfRecords.left().gav();
+                    if (!filter.include(provider1, provider2, pairOfRecords)) {
+                        continue;
+                    }
+                    Map<String,Record> records = recordsByGAV.computeIfAbsent(gav, k -> new LinkedHashMap<>());
+                    records.put(provider1, pairOfRecords.left());
+                    records.put(provider2, pairOfRecords.right());
+                    pairsByGAV.computeIfAbsent(gav, k -> new ArrayList<>()).add(new ProviderPair(provider1, provider2));
+                }
+            }
+        }
+
+        Map<String,Long> costs = new HashMap<>();
+        recordsByGAV.forEach((gav, records) -> costs.put(gav, estimateCost(gav, records.values())));
+        List<GAVWork> schedule = recordsByGAV.keySet().stream()
+            .sorted(Comparator.comparing((String gav) -> costs.get(gav)).reversed().thenComparing(gav -> gav))
+            .map(gav -> new GAVWork(gav, recordsByGAV.get(gav), pairsByGAV.get(gav)))
+            .collect(Collectors.toList());
+        LOG.info("Scheduled {} GAVs with {} pairs of jars, estimated cost (class bytes) is {}", schedule.size(),
+            schedule.stream().mapToInt(work -> work.pairs().size()).sum(), costs.values().stream().mapToLong(c -> c).sum());
+        return schedule;
+    }
+
+    private static long estimateCost(String gav, Collection<Record> records) {
+        long cost = 0;
+        for (Record record : records) {
+            try {
+                cost = cost + Scheduler.classSizes(record.binMainFile()).values().stream().mapToLong(s -> s).sum();
+            } catch (IOException e) {
+                LOG.warn("Cannot estimate cost for " + gav, e);  // errors will be reported when classes are loaded
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * The classes to be compared for a GAV, i.e. the classes that are common to the jars of at least one pair of providers.
+     * Classes are ordered largest first, ties are broken by name to make the order deterministic.
+     * @param work the work for a GAV
+     * @param classes the classes in the jar of each provider
+     * @param classSizes the class sizes in the jar of each provider
+     */
+    static List<String> getClassesToCompare(GAVWork work, Map<String,? extends Map<String,?>> classes, Map<String,Map<String,Long>> classSizes) {
+        Set<String> classesToCompare = new HashSet<>();
+        for (ProviderPair pair : work.pairs()) {
+            Map<String,?> classes1 = classes.get(pair.provider1());
+            Map<String,?> classes2 = classes.get(pair.provider2());
+            classes1.keySet().stream().filter(classes2::containsKey).forEach(classesToCompare::add);
+        }
+        Map<String,Long> sizes = new HashMap<>();
+        for (String clazz : classesToCompare) {
+            sizes.put(clazz, classSizes.values().stream().mapToLong(s -> s.getOrDefault(clazz, 0L)).sum());
+        }
+        return Scheduler.largestFirst(classesToCompare, sizes, Map.of());
+    }
+}
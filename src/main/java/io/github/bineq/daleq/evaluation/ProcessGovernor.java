@@ -0,0 +1,229 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of external processes (souffle, jnorm) running at the same time, based on the number of available processors,
+ * free memory, and the peak memory (RSS) observed for previous runs of each tool.
+ * A process is only started if the memory still to be claimed by the processes already running, plus the estimated peak RSS of the new process,
+ * fits into the available memory minus a reserve. Otherwise the caller blocks, this applies backpressure to the stages feeding work into comparisons.
+ * At least one process is always admitted, so that work proceeds on small machines.
+ * The maximum number of processes can be set with -DPROCESS_PERMITS=<n> (default: number of available processors),
+ * the memory reserve (in MB) with -DMEMORY_RESERVE=<mb> (default: 1024).
+ * RSS is sampled from /proc (Linux), on other platforms the initial estimates are used.
+ * @author jens dietrich
+ */
+public class ProcessGovernor {
+
+    final static Logger LOG = LoggerFactory.getLogger(ProcessGovernor.class);
+
+    public static final String PROCESS_PERMITS = "PROCESS_PERMITS";
+    public static final String MEMORY_RESERVE = "MEMORY_RESERVE";
+
+    static final int MAX_PROCESSES = Integer.getInteger(PROCESS_PERMITS, Runtime.getRuntime().availableProcessors());
+    static final long MEMORY_RESERVE_IN_BYTES = Long.getLong(MEMORY_RESERVE, 1024) * 1024 * 1024;
+
+    static final long SAMPLING_INTERVAL_IN_MS = 250;
+    static final long MB = 1024 * 1024;
+
+    public enum Tool {
+        SOUFFLE(256 * MB), JNORM(2048 * MB);  // jnorm runs soot in a JVM
+        final long initialEstimate;
+        Tool(long initialEstimate) {
+            this.initialEstimate = initialEstimate;
+        }
+    }
+
+    /**
+     * Permission to run a process, must be closed when the process has terminated.
+     */
+    public static class Lease implements AutoCloseable {
+        private final Tool tool;
+        private final Path processMarker;
+        private final long estimate;
+        private volatile long rss = 0;
+        private volatile long peak = 0;
+
+        private Lease(Tool tool, Path processMarker, long estimate) {
+            this.tool = tool;
+            this.processMarker = processMarker;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    private static final Map<Tool,Long> estimates = new EnumMap<>(Tool.class);
+    static {
+        for (Tool tool : Tool.values()) {
+            estimates.put(tool, tool.initialEstimate);
+        }
+    }
+    private static final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    // not a monitor, so that waiting virtual threads do not pin their carriers
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition changed = lock.newCondition();
+
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "process-governor-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    static {
+        SAMPLER.scheduleWithFixedDelay(ProcessGovernor::sample, SAMPLING_INTERVAL_IN_MS, SAMPLING_INTERVAL_IN_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wait until a process for a tool can be started.
+     * @param tool the tool
+     * @param processMarker a path that is part of the command line of the process (like in Watchdog), used to sample its memory usage
+     * @return a lease to be closed when the process has terminated
+     * @throws InterruptedException if the calling thread is interrupted while waiting (e.g. when a comparison is cancelled)
+     */
+    public static Lease acquire(Tool tool, Path processMarker) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long waitingSince = System.currentTimeMillis();
+            boolean logged = false;
+            while (!canStart(tool)) {
+                if (!logged && System.currentTimeMillis() - waitingSince > 10_000) {
+                    LOG.info("waiting for resources to start {}: {} processes running, {} MB available", tool, leases.size(), getAvailableMemory() / MB);
+                    logged = true;
+                }
+                // memory is sampled, so re-check periodically even if no process terminates
+                changed.await(SAMPLING_INTERVAL_IN_MS, TimeUnit.MILLISECONDS);
+            }
+            Lease lease = new Lease(tool, processMarker, estimates.get(tool));
+            leases.add(lease);
+            return lease;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean canStart(Tool tool) {
+        if (leases.isEmpty()) {
+            return true;
+        }
+        if (leases.size() >= MAX_PROCESSES) {
+            return false;
+        }
+        // memory the running processes are expected to claim in addition to what they use already
+        long pending = leases.stream().mapToLong(lease -> Math.max(0, lease.estimate - lease.rss)).sum();
+        return getAvailableMemory() - MEMORY_RESERVE_IN_BYTES - pending >= estimates.get(tool);
+    }
+
+    private static void release(Lease lease) {
+        lock.lock();
+        try {
+            if (!leases.remove(lease)) {
+                return;
+            }
+            if (lease.peak > 0) {
+                // follow observed peaks, but let estimates come down slowly after outliers
+                long estimate = estimates.get(lease.tool);
+                long newEstimate = Math.max(lease.peak, (estimate * 7 + lease.peak) / 8);
+                estimates.put(lease.tool, newEstimate);
+                LOG.debug("{} peak RSS was {} MB, estimate is now {} MB", lease.tool, lease.peak / MB, newEstimate / MB);
+            }
+            changed.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static void sample() {
+        try {
+            if (leases.isEmpty()) {
+                return;
+            }
+            List<ProcessHandle> processes = ProcessHandle.current().descendants().toList();
+            for (Lease lease : leases) {
+                if (lease.processMarker == null) {
+                    continue;
+                }
+                String marker1 = lease.processMarker.toString();
+                String marker2 = lease.processMarker.toAbsolutePath().toString();
+                long rss = 0;
+                long peak = 0;
+                for (ProcessHandle process : processes) {
+                    if (process.info().commandLine().map(cmd -> cmd.contains(marker1) || cmd.contains(marker2)).orElse(false)) {
+                        long[] memory = readMemory(process.pid());
+                        rss = rss + memory[0];
+                        peak = peak + memory[1];
+                    }
+                }
+                lease.rss = rss;
+                lease.peak = Math.max(lease.peak, peak);
+            }
+        }
+        catch (Exception x) {
+            LOG.debug("Error sampling process memory", x);
+        }
+    }
+
+    // VmRSS and VmHWM (peak RSS) in bytes, 0 if not available
+    private static long[] readMemory(long pid) {
+        long[] memory = new long[2];
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    memory[0] = parseKB(line);
+                }
+                else if (line.startsWith("VmHWM:")) {
+                    memory[1] = parseKB(line);
+                }
+            }
+        }
+        catch (IOException x) {
+            // process has terminated, or not on Linux
+        }
+        return memory;
+    }
+
+    private static long parseKB(String line) {
+        String[] tokens = line.trim().split("\\s+");
+        return Long.parseLong(tokens[1]) * 1024;
+    }
+
+    /**
+     * Available memory in bytes, MemAvailable from /proc/meminfo (Linux), otherwise the free physical memory reported by the JVM.
+     */
+    static long getAvailableMemory() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/meminfo"))) {
+                if (line.startsWith("MemAvailable:")) {
+                    return parseKB(line);
+                }
+            }
+        }
+        catch (IOException x) {
+            // not on Linux
+        }
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getFreeMemorySize();
+        }
+        return Long.MAX_VALUE;
+    }
+}
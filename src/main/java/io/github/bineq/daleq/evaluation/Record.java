@@ -1,21 +1,26 @@
 package io.github.bineq.daleq.evaluation;
 
-import com.google.common.base.Preconditions;
-
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.Files;
 import java.nio.file.Path;
 
 /**
  * Record read from the tsv index of the dataset containing alternative builds.
  * version -- official GAV version
  * providerVersion -- version assigned by provider (e.g. RH uses additional version extensions)
+ * URLs are kept as strings, and only turned into URL objects on demand.
  * @author jens dietrich
  */
-public record Record(String groupId , String artifactId, String version, String providerVersion, Path binMainFile, URL binMainUrl, String binMainMD5, URL binMainMD5Url, Path srcMainFile, URL srcMainUrl, String srcMainMd5, URL srcMainMd5Url) {
-
-    public static Record parse(Path datasetRoot,String line) throws MalformedURLException {
+public record Record(String groupId , String artifactId, String version, String providerVersion, Path binMainFile, String binMainUrl, String binMainMD5, String binMainMD5Url, Path srcMainFile, String srcMainUrl, String srcMainMd5, String srcMainMd5Url) {
+
+    /**
+     * Parse a line from an index file.
+     * Note that this does not check whether the files referenced exist, see DatasetIndex::validate .
+     * @param datasetRoot the folder relative to which files are resolved
+     * @param line the line
+     * @return the record
+     */
+    public static Record parse(Path datasetRoot,String line) {
         String[] tokens = line.split("\t");
         assert tokens.length == 12;
 
@@ -24,15 +29,13 @@ public record Record(String groupId , String artifactId, String version, String
         String version = tokens[2];
         String providerVersion = tokens[3];
         Path binMainFile = datasetRoot.resolve(tokens[4]);
-        Preconditions.checkArgument(Files.exists(binMainFile),"file does not exist: " + binMainFile);
-        URL binMainUrl = new URL(tokens[5]);
+        String binMainUrl = tokens[5];
         String binMainMD5 = tokens[6];
-        URL binMainMD5Url = new URL(tokens[7]);
+        String binMainMD5Url = tokens[7];
         Path srcMainFile = datasetRoot.resolve(tokens[8]);
-        Preconditions.checkArgument(Files.exists(srcMainFile));
-        URL srcMainUrl = new URL(tokens[9]);
+        String srcMainUrl = tokens[9];
         String srcMainMd5 = tokens[10];
-        URL srcMainMd5Url = new URL(tokens[11]);
+        String srcMainMd5Url = tokens[11];
 
         return new Record(groupId,artifactId,version,providerVersion,binMainFile,binMainUrl,binMainMD5,binMainMD5Url,srcMainFile,srcMainUrl,srcMainMd5,srcMainMd5Url);
     }
@@ -41,5 +44,20 @@ public record Record(String groupId , String artifactId, String version, String
         return groupId + ':' + artifactId + ':' + version;
     }
 
+    public URL toBinMainURL() throws MalformedURLException {
+        return new URL(binMainUrl);
+    }
+
+    public URL toBinMainMD5URL() throws MalformedURLException {
+        return new URL(binMainMD5Url);
+    }
+
+    public URL toSrcMainURL() throws MalformedURLException {
+        return new URL(srcMainUrl);
+    }
+
+    public URL toSrcMainMd5URL() throws MalformedURLException {
+        return new URL(srcMainMd5Url);
+    }
 
 }
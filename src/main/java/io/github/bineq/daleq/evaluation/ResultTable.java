@@ -0,0 +1,111 @@
+package io.github.bineq.daleq.evaluation;
+
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Compact in-memory container for comparison results.
+ * GAVs, providers and class names are dictionary-encoded, ids are stored in primitive arrays,
+ * and the results for javap, jnorm and daleq are packed into a single byte (base 6, there are six ComparisonResults).
+ * Records are created on demand when results are accessed.
+ * Safe to use from multiple threads.
+ * @author jens dietrich
+ */
+public class ResultTable {
+
+    private static final ComparisonResult[] RESULTS = ComparisonResult.values();
+    private static final int BASE = RESULTS.length;
+    static {
+        assert BASE * BASE * BASE <= 256;
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // dictionary for gavs and providers, and a separate one for classes
+    private final Dictionary names = new Dictionary();
+    private final Dictionary classes = new Dictionary();
+
+    private int[] gavIds = new int[INITIAL_CAPACITY];
+    private int[] provider1Ids = new int[INITIAL_CAPACITY];
+    private int[] provider2Ids = new int[INITIAL_CAPACITY];
+    private int[] classIds = new int[INITIAL_CAPACITY];
+    private byte[] results = new byte[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public synchronized void add(String gav, String provider1, String provider2, String clazz, ComparisonResult result4javap, ComparisonResult result4jnorm, ComparisonResult result4daleq) {
+        if (size == results.length) {
+            int capacity = size + (size >> 1);
+            gavIds = Arrays.copyOf(gavIds, capacity);
+            provider1Ids = Arrays.copyOf(provider1Ids, capacity);
+            provider2Ids = Arrays.copyOf(provider2Ids, capacity);
+            classIds = Arrays.copyOf(classIds, capacity);
+            results = Arrays.copyOf(results, capacity);
+        }
+        gavIds[size] = names.id(gav);
+        provider1Ids[size] = names.id(provider1);
+        provider2Ids[size] = names.id(provider2);
+        classIds[size] = classes.id(clazz);
+        results[size] = (byte) ((result4javap.ordinal() * BASE + result4jnorm.ordinal()) * BASE + result4daleq.ordinal());
+        size = size + 1;
+    }
+
+    public void add(RunComparativeEvaluation.ComparativeEvaluationResultRecord record) {
+        add(record.gav(), record.provider1(), record.provider2(), record.clazz(), record.result4javap(), record.result4jnorm(), record.result4daleq());
+    }
+
+    // only the daleq result is set, results for other tools are UNKNOWN
+    public void add(ResultRecord record) {
+        add(record.gav(), record.provider1(), record.provider2(), record.clazz(), ComparisonResult.UNKNOWN, ComparisonResult.UNKNOWN, record.result());
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized RunComparativeEvaluation.ComparativeEvaluationResultRecord get(int i) {
+        Objects.checkIndex(i, size);
+        int packed = Byte.toUnsignedInt(results[i]);
+        return new RunComparativeEvaluation.ComparativeEvaluationResultRecord(
+            names.name(gavIds[i]),
+            names.name(provider1Ids[i]),
+            names.name(provider2Ids[i]),
+            classes.name(classIds[i]),
+            RESULTS[packed / (BASE * BASE)],
+            RESULTS[(packed / BASE) % BASE],
+            RESULTS[packed % BASE]
+        );
+    }
+
+    public ResultRecord getResultRecord(int i) {
+        RunComparativeEvaluation.ComparativeEvaluationResultRecord record = get(i);
+        return new ResultRecord(record.gav(), record.provider1(), record.provider2(), record.clazz(), record.result4daleq());
+    }
+
+    /**
+     * Stream the results added so far, in the order in which they have been added.
+     */
+    public Stream<RunComparativeEvaluation.ComparativeEvaluationResultRecord> stream() {
+        return IntStream.range(0, size()).mapToObj(this::get);
+    }
+
+    // not thread-safe, access is synchronized by the table
+    private static class Dictionary {
+        private final Map<String,Integer> ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        int id(String name) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                ids.put(name, id);
+                names.add(name);
+            }
+            return id;
+        }
+
+        String name(int id) {
+            return names.get(id);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.bineq.daleq.evaluation;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * List of pairs of classes for which the evaluation has timed out, written to the output folder.
+ * The list can be used to rerun the evaluation for those classes only, usually with larger time budgets.
+ * To do this, set the list to be used as JVM argument, e.g. -DRETRY=<output-folder>/retry.tsv .
+ * Format: tab-separated, columns are gav, provider1, provider2, class and tool (daleq, javap or jnorm).
+ * @author jens dietrich
+ */
+public class RetryList {
+
+    final static Logger LOG = LoggerFactory.getLogger(RetryList.class);
+
+    public static final String FILE_NAME = "retry.tsv";
+    public static final String RETRY = "RETRY";
+
+    private final Set<String> classKeys = new HashSet<>();
+    private final Set<String> jarKeys = new HashSet<>();
+
+    /**
+     * Load the retry list set using -DRETRY, or return null if no such list has been set.
+     * If the list is the one in the output folder, it is renamed so that only new timeouts are recorded in this run.
+     * @param root the output folder
+     * @return the list or null
+     */
+    static RetryList loadIfSet(Path root) throws IOException {
+        String value = System.getProperty(RETRY);
+        if (value == null) {
+            return null;
+        }
+        Path file = Path.of(value);
+        Preconditions.checkArgument(Files.exists(file), "retry list not found: " + file);
+        RetryList retryList = new RetryList();
+        List<String> lines = Files.readAllLines(file);
+        for (String line : lines) {
+            String[] tokens = line.split("\t");
+            assert tokens.length == 5;
+            retryList.classKeys.add(key(tokens[0], tokens[1], tokens[2], tokens[3]));
+            retryList.jarKeys.add(key(tokens[0], tokens[1], tokens[2]));
+        }
+        LOG.info("Retry list loaded from {}, only {} pairs of classes will be compared", file, retryList.classKeys.size());
+        if (Files.exists(root.resolve(FILE_NAME)) && Files.isSameFile(file, root.resolve(FILE_NAME))) {
+            Path previous = root.resolve(FILE_NAME + ".previous");
+            Files.move(file, previous, StandardCopyOption.REPLACE_EXISTING);
+            LOG.info("Retry list moved to {}", previous);
+        }
+        return retryList;
+    }
+
+    /**
+     * Record a timeout.
+     */
+    static synchronized void add(Path root, String gav, String provider1, String provider2, String clazz, String tool) {
+        String line = String.join("\t", gav, provider1, provider2, clazz, tool) + System.lineSeparator();
+        try {
+            Files.writeString(root.resolve(FILE_NAME), line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            LOG.error("Error recording timeout in retry list: " + line, e);
+        }
+    }
+
+    boolean contains(String gav, String provider1, String provider2) {
+        return jarKeys.contains(key(gav, provider1, provider2)) || jarKeys.contains(key(gav, provider2, provider1));
+    }
+
+    boolean contains(String gav, String provider1, String provider2, String clazz) {
+        return classKeys.contains(key(gav, provider1, provider2, clazz)) || classKeys.contains(key(gav, provider2, provider1, clazz));
+    }
+
+    private static String key(String... values) {
+        return String.join("\t", values);
+    }
+}
@@ -0,0 +1,319 @@
+package io.github.bineq.daleq.evaluation;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The dependencies between the relations defined by souffle rules, used to fingerprint only the rules an IDB depends on (see IDBCache).
+ * A relation in the head of a rule depends on the relations used in its body (including negated relations and relations in aggregates).
+ * The rules relevant for an IDB are the rules with heads reachable from the output relations, together with the declarations and IO directives
+ * of the relations reachable, and the statements that apply to all relations (types, pragmas, preprocessor directives etc).
+ * If the rules have no output directives, all rules are relevant.
+ * This is a light-weight parser for plain souffle programs: comments are removed, statements are either directives (starting with a dot,
+ * ending at the end of the line) or rules and facts (ending with a dot), whitespace that does not separate identifiers is removed,
+ * and the order of statements is ignored. So edits that only change formatting, comments or the order of rules do not change the relevant rules.
+ * @author jens dietrich
+ */
+class RuleDependencies {
+
+    record Rule(String text, Set<String> heads, Set<String> body) {}
+
+    // an identifier followed by an opening parenthesis, i.e. a relation (or a functor, those are not defined by rules and therefore ignored)
+    private static final Pattern ATOM = Pattern.compile("([A-Za-z_?][A-Za-z0-9_?.]*)\\s*\\(");
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_?][A-Za-z0-9_?.]*");
+
+    private final List<String> global = new ArrayList<>();
+    // declarations and IO directives by relation
+    private final Map<String,List<String>> declarations = new HashMap<>();
+    private final Set<String> outputs = new TreeSet<>();
+    private final List<Rule> rules = new ArrayList<>();
+
+    private RuleDependencies() {}
+
+    /**
+     * Parse souffle rules.
+     * @param program the rules
+     * @return the dependencies between the relations defined by the rules
+     */
+    static RuleDependencies parse(String program) {
+        String text = stripComments(program);
+        RuleDependencies dependencies = new RuleDependencies();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i = i + 1;
+            }
+            else if (c == '#') {
+                int end = text.indexOf('\n', i);
+                end = end == -1 ? text.length() : end;
+                dependencies.global.add(normalise(text.substring(i, end)));
+                i = end;
+            }
+            else if (c == '.' && i + 1 < text.length() && Character.isLetter(text.charAt(i + 1))) {
+                int end = endOfStatement(text, i, true);
+                dependencies.addDirective(normalise(text.substring(i, end)));
+                i = end;
+            }
+            else {
+                int end = endOfStatement(text, i, false);
+                dependencies.addRule(normalise(text.substring(i, end)));
+                i = end;
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * The relations the IDB consists of, i.e. the relations with output directives, or the relations defined by rules if there are none.
+     */
+    Set<String> getOutputRelations() {
+        if (!outputs.isEmpty()) {
+            return outputs;
+        }
+        Set<String> heads = new TreeSet<>();
+        rules.forEach(rule -> heads.addAll(rule.heads()));
+        return heads;
+    }
+
+    /**
+     * The relations the output relations depend on (directly or transitively), including the output relations.
+     */
+    Set<String> getReachableRelations() {
+        Map<String,Set<String>> dependsOn = new HashMap<>();
+        for (Rule rule : rules) {
+            rule.heads().forEach(head -> dependsOn.computeIfAbsent(head, h -> new HashSet<>()).addAll(rule.body()));
+        }
+        Set<String> reachable = new TreeSet<>();
+        Deque<String> queue = new ArrayDeque<>(getOutputRelations());
+        while (!queue.isEmpty()) {
+            String relation = queue.removeFirst();
+            if (reachable.add(relation)) {
+                queue.addAll(dependsOn.getOrDefault(relation, Set.of()));
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * The rules (with heads) reachable from the output relations.
+     */
+    List<Rule> getRelevantRules() {
+        Set<String> reachable = getReachableRelations();
+        return rules.stream().filter(rule -> !Collections.disjoint(rule.heads(), reachable)).toList();
+    }
+
+    List<Rule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * The normalised text of the statements relevant for the output relations, in a canonical order.
+     */
+    String getRelevantStatements() {
+        List<String> statements = new ArrayList<>(global);
+        getReachableRelations().forEach(relation -> statements.addAll(declarations.getOrDefault(relation, List.of())));
+        getRelevantRules().forEach(rule -> statements.add(rule.text()));
+        Collections.sort(statements);
+        return String.join("\n", statements);
+    }
+
+    private void addDirective(String directive) {
+        Matcher matcher = IDENTIFIER.matcher(directive);
+        matcher.find(1);
+        String kind = matcher.group();
+        String rest = directive.substring(matcher.end());
+        switch (kind) {
+            case "decl" -> {
+                if (matcher.find()) {
+                    declarations.computeIfAbsent(matcher.group(), r -> new ArrayList<>()).add(directive);
+                }
+                else {
+                    global.add(directive);
+                }
+            }
+            case "input", "output", "printsize", "limitsize" -> {
+                // the relations, optionally followed by IO parameters in parentheses
+                int parameters = rest.indexOf('(');
+                Matcher relations = IDENTIFIER.matcher(parameters == -1 ? rest : rest.substring(0, parameters));
+                while (relations.find()) {
+                    declarations.computeIfAbsent(relations.group(), r -> new ArrayList<>()).add(directive);
+                    if (!kind.equals("input") && !kind.equals("limitsize")) {
+                        outputs.add(relations.group());
+                    }
+                }
+            }
+            case "plan" -> {
+                // query plans belong to the rule before
+                if (rules.isEmpty()) {
+                    global.add(directive);
+                }
+                else {
+                    Rule rule = rules.remove(rules.size() - 1);
+                    rules.add(new Rule(rule.text() + directive, rule.heads(), rule.body()));
+                }
+            }
+            default -> global.add(directive);
+        }
+    }
+
+    private void addRule(String rule) {
+        String text = withoutStrings(rule);
+        int separator = indexOfTopLevel(text, ":-");
+        Set<String> heads = relations(separator == -1 ? text : text.substring(0, separator));
+        Set<String> body = separator == -1 ? Set.of() : relations(text.substring(separator + 2));
+        rules.add(new Rule(rule, heads, body));
+    }
+
+    private static Set<String> relations(String text) {
+        Set<String> relations = new TreeSet<>();
+        Matcher matcher = ATOM.matcher(text);
+        while (matcher.find()) {
+            relations.add(matcher.group(1));
+        }
+        return relations;
+    }
+
+    // the end of a directive (the end of the line) or a rule (after the terminating dot), ignoring parentheses, strings and decimal points
+    private static int endOfStatement(String text, int start, boolean directive) {
+        int depth = 0;
+        int i = start + (directive ? 1 : 0);
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                i = endOfString(text, i);
+                continue;
+            }
+            if (c == '(') {
+                depth = depth + 1;
+            }
+            else if (c == ')') {
+                depth = Math.max(0, depth - 1);
+            }
+            else if (depth == 0 && directive && c == '\n') {
+                return i;
+            }
+            else if (depth == 0 && !directive && c == '.' && !isDecimalPoint(text, i)) {
+                return i + 1;
+            }
+            i = i + 1;
+        }
+        return text.length();
+    }
+
+    private static boolean isDecimalPoint(String text, int i) {
+        return i > 0 && i + 1 < text.length() && Character.isDigit(text.charAt(i - 1)) && Character.isDigit(text.charAt(i + 1));
+    }
+
+    // the index after the closing quote of a string starting at start
+    private static int endOfString(String text, int start) {
+        int i = start + 1;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i = i + 2;
+            }
+            else if (c == '"') {
+                return i + 1;
+            }
+            else {
+                i = i + 1;
+            }
+        }
+        return text.length();
+    }
+
+    private static int indexOfTopLevel(String text, String token) {
+        int depth = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '(') {
+                depth = depth + 1;
+            }
+            else if (c == ')') {
+                depth = depth - 1;
+            }
+            else if (depth == 0 && text.startsWith(token, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String stripComments(String program) {
+        StringBuilder b = new StringBuilder(program.length());
+        int i = 0;
+        while (i < program.length()) {
+            char c = program.charAt(i);
+            if (c == '"') {
+                int end = endOfString(program, i);
+                b.append(program, i, end);
+                i = end;
+            }
+            else if (program.startsWith("//", i)) {
+                int end = program.indexOf('\n', i);
+                i = end == -1 ? program.length() : end;
+            }
+            else if (program.startsWith("/*", i)) {
+                int end = program.indexOf("*/", i + 2);
+                i = end == -1 ? program.length() : end + 2;
+                b.append(' ');
+            }
+            else {
+                b.append(c);
+                i = i + 1;
+            }
+        }
+        return b.toString();
+    }
+
+    // whitespace is only retained (as a single space) between identifiers, strings are not changed
+    static String normalise(String statement) {
+        StringBuilder b = new StringBuilder(statement.length());
+        boolean space = false;
+        int i = 0;
+        while (i < statement.length()) {
+            char c = statement.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i = i + 1;
+                continue;
+            }
+            if (space && b.length() > 0 && isIdentifierPart(b.charAt(b.length() - 1)) && isIdentifierPart(c)) {
+                b.append(' ');
+            }
+            space = false;
+            if (c == '"') {
+                int end = endOfString(statement, i);
+                b.append(statement, i, end);
+                i = end;
+            }
+            else {
+                b.append(c);
+                i = i + 1;
+            }
+        }
+        return b.toString();
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '?' || c == '.';
+    }
+
+    private static String withoutStrings(String statement) {
+        StringBuilder b = new StringBuilder(statement.length());
+        int i = 0;
+        while (i < statement.length()) {
+            if (statement.charAt(i) == '"') {
+                i = endOfString(statement, i);
+                b.append("\"\"");
+            }
+            else {
+                b.append(statement.charAt(i));
+                i = i + 1;
+            }
+        }
+        return b.toString();
+    }
+}
@@ -3,24 +3,24 @@ package io.github.bineq.daleq.evaluation;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 import io.github.bineq.daleq.IOUtil;
-import io.github.bineq.daleq.Rules;
-import io.github.bineq.daleq.Souffle;
-import io.github.bineq.daleq.edb.FactExtractor;
 import io.github.bineq.daleq.evaluation.tools.Diff;
 import io.github.bineq.daleq.evaluation.tools.Javap;
-import io.github.bineq.daleq.idb.IDB;
-import io.github.bineq.daleq.idb.IDBPrinter;
-import io.github.bineq.daleq.idb.IDBReader;
+import io.github.bineq.daleq.evaluation.tools.Watchdog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -45,6 +45,27 @@ public class RunComparativeEvaluation {
 
     static final Path JNORM = Path.of("tools/jnorm-cli-1.0.0.jar");
 
+    // if set, only pairs of classes in this list are compared
+    private static RetryList RETRY_LIST = null;
+
+    // if set (-DSAMPLE), only pairs of classes in this sample are compared
+    private static Sampling SAMPLE = null;
+
+    // if set (-DDEAD_LETTERS), only pairs of jars and classes that have failed before are compared
+    private static DeadLetters DEAD_LETTERS = null;
+
+    // artifacts and verdicts are recorded for analysis tools
+    private static Manifest MANIFEST = null;
+
+    // locks for the jnorm output folders for jars, an entry is removed once no thread holds or waits for its lock
+    private static final Map<Path,JNormLock> JNORM_LOCKS = new ConcurrentHashMap<>();
+
+    // users is only accessed in JNORM_LOCKS.compute* , i.e. atomically
+    private static class JNormLock {
+        final ReentrantLock lock = new ReentrantLock();
+        int users = 0;
+    }
+
     public record ComparativeEvaluationResultRecord(String gav, String provider1, String provider2, String clazz, ComparisonResult result4javap, ComparisonResult result4jnorm, ComparisonResult result4daleq) {
         String toCSVLine() {
             return  List.of(gav,provider1,provider2,clazz,result4javap.toString(),result4jnorm.toString(),result4daleq.toString())
@@ -88,6 +109,11 @@ public class RunComparativeEvaluation {
             }
 
 
+            RETRY_LIST = RetryList.loadIfSet(VALIDATION_DB);
+            DEAD_LETTERS = DeadLetters.loadIfSet(VALIDATION_DB);
+            Incremental incremental = Incremental.loadIfEnabled(VALIDATION_DB);
+            MANIFEST = Manifest.open(VALIDATION_DB);
+
             List<Path> datasets = Stream.of(args).skip(1)
                     .map(arg -> {
                         Path path = Path.of(arg);
@@ -107,7 +133,9 @@ public class RunComparativeEvaluation {
                     .map(f -> {
                         try {
                             LOG.info("Parsing records from " + f);
+                            long start = System.nanoTime();
                             Set<Record> records = RunEvaluation.parseRecords(f);
+                            StageTimer.stop(StageTimer.Stage.PARSE_INDEX,start);
                             LOG.info("\t" + records.size() + " parsed");
                             return records;
                         } catch (IOException e) {
@@ -115,9 +143,12 @@ public class RunComparativeEvaluation {
                             throw new RuntimeException(e);
                         }
                     }).collect(Collectors.toUnmodifiableList());
+            SAMPLE = Sampling.drawIfEnabled(VALIDATION_DB, providers, setsOfRecords, 1);
 
-            List<ComparativeEvaluationResultRecord> results = new ArrayList<>();
-            Map<Path,Map<String,Content>> cache = new ConcurrentHashMap<>();
+            // compact storage, records are created on demand
+            ResultTable results = new ResultTable();
+            // bounded, jars are evicted when no upcoming pair of jars needs them
+            JarCache cache = new JarCache();
 
             int N = datasets.size()*(datasets.size()-1)/2;
             AtomicInteger pairsOfJarsRecordCounter = new AtomicInteger(0);
@@ -126,7 +157,121 @@ public class RunComparativeEvaluation {
             AtomicInteger bothJarsEmptyCounter = new AtomicInteger(0);
             AtomicInteger equalClassCounter = new AtomicInteger(0);
             AtomicInteger nonEqualClassCounter = new AtomicInteger(0);
-            Set<String> gavs = new HashSet();
+            Set<String> gavs = ConcurrentHashMap.newKeySet();
+
+            // results are counted as they arrive
+            VerdictCounter javapVerdicts = new VerdictCounter();
+            VerdictCounter jnormVerdicts = new VerdictCounter();
+            VerdictCounter daleqVerdicts = new VerdictCounter();
+            LongAdder jnormButNotDaleqEquivalentCounter = new LongAdder();
+            LongAdder javapButNotDaleqEquivalentCounter = new LongAdder();
+
+            // bookkeeping for pairs of classes with different bytecode
+            Consumer<ComparativeEvaluationResultRecord> countResult = resultRecord -> {
+                results.add(resultRecord);
+                javapVerdicts.add(resultRecord.result4javap());
+                jnormVerdicts.add(resultRecord.result4jnorm());
+                daleqVerdicts.add(resultRecord.result4daleq());
+                if (resultRecord.result4daleq()==ComparisonResult.NON_EQUIVALENT && resultRecord.result4jnorm()==ComparisonResult.EQUIVALENT) {
+                    jnormButNotDaleqEquivalentCounter.increment();
+                }
+                if (resultRecord.result4daleq()==ComparisonResult.NON_EQUIVALENT && resultRecord.result4javap()==ComparisonResult.EQUIVALENT) {
+                    javapButNotDaleqEquivalentCounter.increment();
+                }
+            };
+            Consumer<ComparativeEvaluationResultRecord> recordResult = countResult.andThen(RunComparativeEvaluation::addVerdicts);
+            AtomicInteger carriedForwardCounter = new AtomicInteger(0);
+
+            // pairs of jars selected for this run
+            NWayComparison.PairFilter selected = (provider1, provider2, pairOfRecords) -> {
+                if (SAMPLE != null && !SAMPLE.contains(pairOfRecords.left().gav(), provider1, provider2)) {
+                    return false;
+                }
+                if (DEAD_LETTERS != null && !DEAD_LETTERS.contains(pairOfRecords.left().gav(), provider1, provider2)) {
+                    return false;
+                }
+                if (RETRY_LIST != null) {
+                    return RETRY_LIST.contains(pairOfRecords.left().gav(), provider1, provider2);
+                }
+                return true;
+            };
+
+            // results of previous runs for pairs of jars that have not changed are carried forward (not for retries and replays of dead letters)
+            Map<String,Incremental.CarriedForward> carriedForward = incremental == null || RETRY_LIST != null || DEAD_LETTERS != null
+                ? Map.of()
+                : incremental.getCarriedForward(providers, setsOfRecords, 1, selected);
+            for (Incremental.CarriedForward previous : carriedForward.values()) {
+                carriedForwardCounter.incrementAndGet();
+                pairOfRecordsCounter.incrementAndGet();
+                gavs.add(previous.jars().gav());
+                // only classes with different bytecode have verdicts
+                Map<String,Map<String,ComparisonResult>> resultsByClass = new TreeMap<>();
+                previous.verdicts().forEach(verdict -> resultsByClass.computeIfAbsent(verdict.clazz(), c -> new HashMap<>()).put(verdict.tool(), verdict.result()));
+                resultsByClass.forEach((clazz, resultsByTool) -> countResult.accept(new ComparativeEvaluationResultRecord(
+                    previous.jars().gav(),
+                    previous.jars().provider1(),
+                    previous.jars().provider2(),
+                    clazz,
+                    resultsByTool.getOrDefault("javap", ComparisonResult.UNKNOWN),
+                    resultsByTool.getOrDefault("jnorm", ComparisonResult.UNKNOWN),
+                    resultsByTool.getOrDefault("daleq", ComparisonResult.UNKNOWN)
+                )));
+                classesComparedCounter.addAndGet(previous.jars().classes());
+                nonEqualClassCounter.addAndGet(resultsByClass.size());
+                equalClassCounter.addAndGet(previous.jars().classes() - resultsByClass.size());
+            }
+
+            // pairs of jars to be compared
+            NWayComparison.PairFilter include = (provider1, provider2, pairOfRecords) ->
+                selected.include(provider1, provider2, pairOfRecords) && !carriedForward.containsKey(Manifest.key(pairOfRecords.left().gav(), provider1, provider2));
+
+            Runnable logResults = () -> {
+                LOG.info("pairs of records processed: {}",pairOfRecordsCounter.get());
+                LOG.info("pairs of records with results carried forward from previous runs: {}",carriedForwardCounter.get());
+
+                // some statistics
+                LOG.info("jars compared: {}",gavs.size()*2);
+                LOG.info("pairs where both jars have no .class files: {}",bothJarsEmptyCounter.get());
+                LOG.info("classes compared: {}",classesComparedCounter.get());
+                cache.logStats();
+                JarDigests.logStats();
+                DeadLetters.logStats();
+                LOG.info("classes compared - equal: {}",equalClassCounter.get());
+                LOG.info("classes compared - non-equal: {}",nonEqualClassCounter.get());
+                LOG.info("classes equivalent wrt javap: {}",javapVerdicts.get(ComparisonResult.EQUIVALENT));
+                LOG.info("classes equivalent wrt jnorm: {}",jnormVerdicts.get(ComparisonResult.EQUIVALENT));
+                LOG.info("classes equivalent wrt daleq: {}",daleqVerdicts.get(ComparisonResult.EQUIVALENT));
+                LOG.info("classes with error wrt javap: {}",javapVerdicts.get(ComparisonResult.ERROR));
+                LOG.info("classes with error wrt jnorm: {}",jnormVerdicts.get(ComparisonResult.ERROR));
+                LOG.info("classes with error wrt daleq: {}",daleqVerdicts.get(ComparisonResult.ERROR));
+                LOG.info("classes with timeout wrt javap: {}",javapVerdicts.get(ComparisonResult.TIMEOUT));
+                LOG.info("classes with timeout wrt jnorm: {}",jnormVerdicts.get(ComparisonResult.TIMEOUT));
+                LOG.info("classes with timeout wrt daleq: {}",daleqVerdicts.get(ComparisonResult.TIMEOUT));
+
+                LOG.info("classes equivalent wrt jnorm not daleq: {}",jnormButNotDaleqEquivalentCounter.sum());
+                LOG.info("classes equivalent wrt javap not daleq: {}",javapButNotDaleqEquivalentCounter.sum());
+            };
+
+            if (NWayComparison.ENABLED) {
+                // the jars built by all providers for a GAV are compared in one go
+                List<NWayComparison.GAVWork> schedule = NWayComparison.schedule(providers, setsOfRecords, 1, include);
+                schedule.forEach(work -> work.jars().forEach(cache::expect));
+                AtomicInteger counter = new AtomicInteger(0);
+                Scheduler.run(schedule, work -> {
+                    pairOfRecordsCounter.addAndGet(work.pairs().size());
+                    int progress = counter.incrementAndGet();
+                    if (progress%10==0) {
+                        LOG.info("\tprogress GAV(s) " + progress + "/" + schedule.size());
+                    }
+                    gavs.add(work.gav());
+                    compareNWay(work, cache, recordResult, bothJarsEmptyCounter, classesComparedCounter, equalClassCounter, nonEqualClassCounter);
+                });
+                writeResults(results);
+                logResults.run();
+                MANIFEST.close();
+                reportSample();
+                return;
+            }
 
             for (int i = 0; i < datasets.size(); i++) {
                 String provider1 = providers.get(i);
@@ -138,7 +283,9 @@ public class RunComparativeEvaluation {
                     Set<Record> records2 = setsOfRecords.get(j);
 
                     // GUARD TO ONLY COMPARE RECORDS WITH MATCHING SOURCE FILES !
+                    long start = System.nanoTime();
                     Set<PairOfRecords> pairsOfRecords = RunEvaluation.findMatchingRecordsWithSameSources(provider1, provider2, records1, records2, 1);
+                    StageTimer.stop(StageTimer.Stage.MATCH_RECORDS,start);
 
                     LOG.info("Matching records (GAVs with equivalent sources for both providers): " + pairsOfRecords.size());
                     LOG.info("\tprogress: " + pairsOfJarsRecordCounter + " / " + N);
@@ -147,12 +294,16 @@ public class RunComparativeEvaluation {
 
                     AtomicInteger counter2 = new AtomicInteger(0);
 
-                    // serial makes debugging easier as records appear in predictable order in results
-                    pairsOfRecords.stream().forEach(pairOfRecords -> {
+                    // most expensive jars first, serial unless -DTHREADS is set (serial makes debugging easier as records appear in predictable order in results)
+                    List<PairOfRecords> schedule = Scheduler.largestFirst(pairsOfRecords.stream()
+                        .filter(pairOfRecords -> include.include(provider1, provider2, pairOfRecords))
+                        .collect(Collectors.toList()));
+                    cache.expect(schedule);
+                    Scheduler.run(schedule, pairOfRecords -> {
                         pairOfRecordsCounter.incrementAndGet();
-                        counter2.incrementAndGet();
-                        if (counter2.get()%10==0) {
-                            LOG.info("\tprogress dataset pair " + pairsOfJarsRecordCounter.get() + "/" + N + " , jar(s) " + counter2.get() + "/" + pairsOfRecords.size());
+                        int progress = counter2.incrementAndGet();
+                        if (progress%10==0) {
+                            LOG.info("\tprogress dataset pair " + pairsOfJarsRecordCounter.get() + "/" + N + " , jar(s) " + progress + "/" + schedule.size());
                         }
                         LOG.debug("Loading classes for {} with providers {} and {}",pairOfRecords.left().gav(),provider1,provider2);
 
@@ -160,104 +311,323 @@ public class RunComparativeEvaluation {
                         Path jar2 = pairOfRecords.right().binMainFile();
 
                         try {
-                            Map<String, Content> classes1 = RunEvaluation.loadClasses(cache, jar1);
-                            Map<String, Content> classes2 = RunEvaluation.loadClasses(cache, jar2);
-                            if (classes1.size()==0 && classes2.size()==0) {
-                                bothJarsEmptyCounter.incrementAndGet();
-                            }
-                            String gav = pairOfRecords.left().gav();
-                            assert gav.equals(pairOfRecords.right().gav());
-                            gavs.add(gav);
-                            Set<String> commonClasses = Sets.intersection(classes1.keySet(), classes2.keySet());
-
-                            commonClasses.stream().forEach(commonClass -> {
-                                Content clazz1 = classes1.get(commonClass);
-                                Content clazz2 = classes2.get(commonClass);
-
-                                String nClassName = commonClass.replace("/",".").replace(".class","");
-                                // also replace $ char -- this creates issue with souffle
-                                nClassName = RunEvaluation.escapeDollarChar(nClassName);
-                                Path analysisDir4Gav = VALIDATION_DB.resolve(gav);
-                                Path analysisDir4GavNClass = analysisDir4Gav.resolve(nClassName);
-
-                                // LOG.info("TODO: compare classes {}",commonClass);
-
-                                try {
-                                    byte[] bytecode1 = clazz1.load();
-                                    byte[] bytecode2 = clazz2.load();
-
-                                    // only compare if different
-                                    if (!Arrays.equals(bytecode1,bytecode2)) {
-                                        nonEqualClassCounter.incrementAndGet();
-
-                                        ComparisonResult result4Daleq = compareUsingDaleq(pairOfRecords.left().gav(), provider1, provider2, commonClass, bytecode1, bytecode2, analysisDir4GavNClass);
-                                        ComparisonResult result4JNorm = compareUsingJNorm(pairOfRecords.left().gav(), provider1, provider2, jar1, jar2, commonClass, bytecode1, bytecode2, analysisDir4Gav, analysisDir4GavNClass);
-                                        ComparisonResult result4Javap = compareUsingJavap(pairOfRecords.left().gav(), provider1, provider2, commonClass, bytecode1, bytecode2, analysisDir4GavNClass);
-
-                                        ComparativeEvaluationResultRecord resultRecord = new ComparativeEvaluationResultRecord(
-                                            gav,
-                                            provider1,
-                                            provider2,
-                                            commonClass,
-                                            result4Javap,
-                                            result4JNorm,
-                                            result4Daleq
-                                        );
-                                        results.add(resultRecord);
+                            // if this fails, the pair of jars is recorded as dead letter and the run continues
+                            DeadLetters.isolate(VALIDATION_DB, pairOfRecords.left().gav(), provider1, provider2, null, () -> {
+                                if (JarDigests.isIdentical(pairOfRecords.left(), pairOfRecords.right())) {
+                                    gavs.add(pairOfRecords.left().gav());
+                                    compareIdenticalJars(provider1, provider2, pairOfRecords, bothJarsEmptyCounter, classesComparedCounter, equalClassCounter);
+                                    return;
+                                }
+                                long start2 = System.nanoTime();
+                                Map<String, Content> classes1 = cache.getClasses(jar1);
+                                Map<String, Content> classes2 = cache.getClasses(jar2);
+                                StageTimer.stop(StageTimer.Stage.LOAD_CLASSES,start2);
+                                if (classes1.size()==0 && classes2.size()==0) {
+                                    bothJarsEmptyCounter.incrementAndGet();
+                                }
+                                String gav = pairOfRecords.left().gav();
+                                assert gav.equals(pairOfRecords.right().gav());
+                                gavs.add(gav);
+                                List<String> commonClasses = Scheduler.largestFirst(
+                                    Sets.intersection(classes1.keySet(), classes2.keySet()),
+                                    cache.getClassSizes(jar1),
+                                    cache.getClassSizes(jar2)
+                                );
+
+                                AtomicBoolean failed = new AtomicBoolean(false);
+                                Scheduler.runClasses(commonClasses, commonClass -> {
+                                    if (skip(gav, provider1, provider2, commonClass)) {
+                                        return;
                                     }
-                                    else {
-                                        equalClassCounter.incrementAndGet();
+                                    Content clazz1 = classes1.get(commonClass);
+                                    Content clazz2 = classes2.get(commonClass);
+
+                                    String nClassName = commonClass.replace("/",".").replace(".class","");
+                                    // also replace $ char -- this creates issue with souffle
+                                    nClassName = RunEvaluation.escapeDollarChar(nClassName);
+                                    Path analysisDir4Gav = VALIDATION_DB.resolve(gav);
+                                    Path analysisDir4GavNClass = analysisDir4Gav.resolve(nClassName);
+
+                                    // LOG.info("TODO: compare classes {}",commonClass);
+
+                                    // if this fails, the pair of classes is recorded as dead letter and the run continues
+                                    boolean compared = DeadLetters.isolate(VALIDATION_DB, gav, provider1, provider2, commonClass, () -> {
+                                        long start3 = System.nanoTime();
+                                        try {
+                                            byte[] bytecode1 = clazz1.load();
+                                            byte[] bytecode2 = clazz2.load();
+
+                                            // only compare if different
+                                            if (!Arrays.equals(bytecode1,bytecode2)) {
+                                                ComparisonResult result4Daleq = compareUsingDaleq(pairOfRecords.left().gav(), provider1, provider2, commonClass, bytecode1, bytecode2, analysisDir4GavNClass);
+                                                ComparisonResult result4JNorm = compareUsingJNorm(pairOfRecords.left().gav(), provider1, provider2, jar1, jar2, commonClass, bytecode1, bytecode2, analysisDir4Gav, analysisDir4GavNClass);
+                                                ComparisonResult result4Javap = compareUsingJavap(pairOfRecords.left().gav(), provider1, provider2, commonClass, bytecode1, bytecode2, analysisDir4GavNClass);
+
+                                                ComparativeEvaluationResultRecord resultRecord = new ComparativeEvaluationResultRecord(
+                                                    gav,
+                                                    provider1,
+                                                    provider2,
+                                                    commonClass,
+                                                    result4Javap,
+                                                    result4JNorm,
+                                                    result4Daleq
+                                                );
+                                                nonEqualClassCounter.incrementAndGet();
+                                                recordResult.accept(resultRecord);
+                                            }
+                                            else {
+                                                equalClassCounter.incrementAndGet();
+                                                sampledEqual(gav, provider1, provider2, commonClass);
+                                            }
+                                        }
+                                        finally {
+                                            // bytecode is only retained while classes are compared
+                                            clazz1.release();
+                                            clazz2.release();
+                                        }
+                                        StageTimer.stop(StageTimer.Stage.COMPARE_CLASSES,start3);
+                                    });
+                                    if (!compared) {
+                                        failed.set(true);
+                                        return;
                                     }
-                                } catch (Exception e) {
-                                    throw new RuntimeException(e);
-                                }
 
-                                classesComparedCounter.incrementAndGet();
+                                    classesComparedCounter.incrementAndGet();
+                                });
+                                if (!failed.get() && RETRY_LIST == null && SAMPLE == null && DEAD_LETTERS == null) {
+                                    MANIFEST.addJars(gav, provider1, provider2, pairOfRecords.left().binMainMD5(), pairOfRecords.right().binMainMD5(), commonClasses.size(), IDBCache.getFingerprint());
+                                }
                             });
                         }
-                        catch (Exception e) {
-                            throw new RuntimeException(e);
+                        finally {
+                            cache.release(jar1);
+                            cache.release(jar2);
                         }
                     });
 
-                    // save results
-                    List<String> lines = results.stream()
-                        .map(ComparativeEvaluationResultRecord::toCSVLine)
-                        .collect(Collectors.toList());
-                    lines.add(0,ComparativeEvaluationResultRecord.getCSVHeaderLine());
+                    writeResults(results);
+                }
+
+                logResults.run();
+
+            }
+
+            MANIFEST.close();
+            reportSample();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+    }
+
+    private static void addVerdicts(ComparativeEvaluationResultRecord resultRecord) {
+        Path analysisDir4GavNClass = analysisDir(resultRecord.gav(), resultRecord.clazz());
+        MANIFEST.addVerdict(resultRecord.gav(), resultRecord.clazz(), resultRecord.provider1(), resultRecord.provider2(), "javap", resultRecord.result4javap(), resultRecord.result4javap() == ComparisonResult.NON_EQUIVALENT ? diffFile(analysisDir4GavNClass, "javap") : null);
+        MANIFEST.addVerdict(resultRecord.gav(), resultRecord.clazz(), resultRecord.provider1(), resultRecord.provider2(), "jnorm", resultRecord.result4jnorm(), resultRecord.result4jnorm() == ComparisonResult.NON_EQUIVALENT ? diffFile(analysisDir4GavNClass, "jnorm") : null);
+        MANIFEST.addVerdict(resultRecord.gav(), resultRecord.clazz(), resultRecord.provider1(), resultRecord.provider2(), "daleq", resultRecord.result4daleq(), resultRecord.result4daleq() == ComparisonResult.NON_EQUIVALENT ? diffFile(analysisDir4GavNClass, "daleq") : null);
+    }
+
+    private static void writeResults(ResultTable results) throws IOException {
+        // a sample is not merged into the summary of a full run, as it would look like the results for all classes
+        Path resultFile = VALIDATION_DB.resolve(SAMPLE == null ? "summary.csv" : "summary-sample.csv");
+        Stream<String> rows = results.stream().map(ComparativeEvaluationResultRecord::toCSVLine);
+
+        if ((RETRY_LIST != null || DEAD_LETTERS != null) && Files.exists(resultFile)) {
+            // retries and replays only compare some classes, their rows replace the rows of the previous run for the same pairs of classes
+            Map<String,String> merged = new LinkedHashMap<>();
+            try (Stream<String> previousRows = Files.lines(resultFile)) {
+                previousRows.skip(1).forEach(row -> merged.put(rowKey(row), row));
+            }
+            rows.forEach(row -> merged.put(rowKey(row), row));
+            rows = merged.values().stream();
+            LOG.info("results merged with the results of the previous run in {}", resultFile);
+        }
 
-                    String resultFileName = "summary.csv";
-                    Path resultFile = VALIDATION_DB.resolve(resultFileName);
-                    Files.write(resultFile, lines);
+        // save results, lines are streamed to the file
+        Stream<String> lines = Stream.concat(Stream.of(ComparativeEvaluationResultRecord.getCSVHeaderLine()), rows);
+        Files.write(resultFile, (Iterable<String>) lines::iterator);
+
+        LOG.info("results written to {}", resultFile);
+    }
+
+    private static String rowKey(String row) {
+        ComparativeEvaluationResultRecord record = ComparativeEvaluationResultRecord.parse(row);
+        return Manifest.key(record.gav(), record.clazz(), record.provider1(), record.provider2());
+    }
 
-                    LOG.info("results written to {}", resultFile);
+    // compare the jars built by all providers for a GAV, the normal forms for each version of a class are computed at most once
+    private static void compareNWay(NWayComparison.GAVWork gavWork, JarCache cache, Consumer<ComparativeEvaluationResultRecord> recordResult, AtomicInteger bothJarsEmptyCounter, AtomicInteger classesComparedCounter, AtomicInteger equalClassCounter, AtomicInteger nonEqualClassCounter) {
+        String gav = gavWork.gav();
+        // if this fails, all pairs of jars for the GAV are recorded as dead letters and the run continues
+        List<DeadLetters.Item> items = gavWork.pairs().stream().map(pair -> new DeadLetters.Item(gav, pair.provider1(), pair.provider2(), null)).toList();
+        try {
+            DeadLetters.isolate(VALIDATION_DB, items, () -> {
+                Map<NWayComparison.ProviderPair,PairOfRecords> identicalJars = new LinkedHashMap<>();
+                NWayComparison.GAVWork work = NWayComparison.withoutIdenticalJars(gavWork, identicalJars);
+                for (Map.Entry<NWayComparison.ProviderPair,PairOfRecords> entry : identicalJars.entrySet()) {
+                    compareIdenticalJars(entry.getKey().provider1(), entry.getKey().provider2(), entry.getValue(), bothJarsEmptyCounter, classesComparedCounter, equalClassCounter);
+                }
+                if (work.pairs().isEmpty()) {
+                    return;
+                }
+                LOG.debug("Loading classes for {} with providers {}",gav,work.records().keySet());
+                long start = System.nanoTime();
+                Map<String,Map<String,Content>> classes = new HashMap<>();
+                Map<String,Map<String,Long>> classSizes = new HashMap<>();
+                for (Map.Entry<String,Record> entry : work.records().entrySet()) {
+                    classes.put(entry.getKey(), cache.getClasses(entry.getValue().binMainFile()));
+                    classSizes.put(entry.getKey(), cache.getClassSizes(entry.getValue().binMainFile()));
+                }
+                StageTimer.stop(StageTimer.Stage.LOAD_CLASSES,start);
+                for (NWayComparison.ProviderPair pair : work.pairs()) {
+                    if (classes.get(pair.provider1()).size()==0 && classes.get(pair.provider2()).size()==0) {
+                        bothJarsEmptyCounter.incrementAndGet();
+                    }
                 }
 
-                LOG.info("pairs of records processed: {}",pairOfRecordsCounter.get());
+                Path analysisDir4Gav = VALIDATION_DB.resolve(gav);
+                Set<NWayComparison.ProviderPair> failedPairs = ConcurrentHashMap.newKeySet();
+                Scheduler.runClasses(NWayComparison.getClassesToCompare(work, classes, classSizes), clazz -> {
+                    Path analysisDir4GavNClass = analysisDir(gav, clazz);
+                    NWayComparison.NormalForms idbs = new NWayComparison.NormalForms(provider ->
+                        computeAndSerializeIDB(gav, provider, clazz, classes.get(provider).get(clazz).load(), analysisDir4GavNClass)
+                    );
+                    NWayComparison.NormalForms jimples = new NWayComparison.NormalForms(provider -> {
+                        long start2 = System.nanoTime();
+                        try {
+                            return jnorm(gav, provider, work.records().get(provider).binMainFile(), clazz, classes.get(provider).get(clazz).load(), analysisDir4Gav, analysisDir4GavNClass);
+                        }
+                        finally {
+                            StageTimer.stop(StageTimer.Stage.JNORM,start2);
+                        }
+                    });
+                    NWayComparison.NormalForms disassembled = new NWayComparison.NormalForms(provider -> {
+                        long start2 = System.nanoTime();
+                        try {
+                            return javap(gav, provider, clazz, classes.get(provider).get(clazz).load(), analysisDir4GavNClass);
+                        }
+                        finally {
+                            StageTimer.stop(StageTimer.Stage.JAVAP,start2);
+                        }
+                    });
+                    try {
+                        for (NWayComparison.ProviderPair pair : work.pairs()) {
+                            String provider1 = pair.provider1();
+                            String provider2 = pair.provider2();
+                            Content clazz1 = classes.get(provider1).get(clazz);
+                            Content clazz2 = classes.get(provider2).get(clazz);
+                            if (clazz1 == null || clazz2 == null || skip(gav, provider1, provider2, clazz)) {
+                                continue;
+                            }
+                            // if this fails, the pair of classes is recorded as dead letter and the run continues
+                            boolean compared = DeadLetters.isolate(VALIDATION_DB, gav, provider1, provider2, clazz, () -> {
+                                long start3 = System.nanoTime();
+                                if (!Arrays.equals(clazz1.load(), clazz2.load())) {
+                                    ComparisonResult result4Daleq = compareNormalForms(idbs, gav, provider1, provider2, clazz, "daleq", analysisDir4GavNClass);
+                                    ComparisonResult result4JNorm = compareNormalForms(jimples, gav, provider1, provider2, clazz, "jnorm", analysisDir4GavNClass);
+                                    ComparisonResult result4Javap = compareNormalForms(disassembled, gav, provider1, provider2, clazz, "javap", analysisDir4GavNClass);
+                                    nonEqualClassCounter.incrementAndGet();
+                                    recordResult.accept(new ComparativeEvaluationResultRecord(gav, provider1, provider2, clazz, result4Javap, result4JNorm, result4Daleq));
+                                }
+                                else {
+                                    equalClassCounter.incrementAndGet();
+                                    sampledEqual(gav, provider1, provider2, clazz);
+                                }
+                                StageTimer.stop(StageTimer.Stage.COMPARE_CLASSES,start3);
+                            });
+                            if (!compared) {
+                                failedPairs.add(pair);
+                                continue;
+                            }
+                            classesComparedCounter.incrementAndGet();
+                        }
+                        LOG.debug("IDB equivalence classes for {} in {}: {}", clazz, gav, idbs.getEquivalenceClasses().values());
+                    }
+                    finally {
+                        // bytecode is only retained while classes are compared
+                        classes.values().stream().map(c -> c.get(clazz)).filter(Objects::nonNull).forEach(Content::release);
+                    }
+                });
+                if (RETRY_LIST == null && SAMPLE == null && DEAD_LETTERS == null) {
+                    for (NWayComparison.ProviderPair pair : work.pairs()) {
+                        if (!failedPairs.contains(pair)) {
+                            RunEvaluation.addJars(MANIFEST, work, pair, classes);
+                        }
+                    }
+                }
+            });
+        }
+        finally {
+            gavWork.jars().forEach(cache::release);
+        }
+    }
 
-                // some statistics
-                LOG.info("jars compared: {}",gavs.size()*2);
-                LOG.info("pairs where both jars have no .class files: {}",bothJarsEmptyCounter.get());
-                LOG.info("classes compared: {}",classesComparedCounter.get());
-                LOG.info("classes compared - equal: {}",equalClassCounter.get());
-                LOG.info("classes compared - non-equal: {}",nonEqualClassCounter.get());
-                LOG.info("classes equivalent wrt javap: {}",results.stream().filter(r -> r.result4javap==ComparisonResult.EQUIVALENT).count());
-                LOG.info("classes equivalent wrt jnorm: {}",results.stream().filter(r -> r.result4jnorm==ComparisonResult.EQUIVALENT).count());
-                LOG.info("classes equivalent wrt daleq: {}",results.stream().filter(r -> r.result4daleq==ComparisonResult.EQUIVALENT).count());
-                LOG.info("classes with error wrt javap: {}",results.stream().filter(r -> r.result4javap==ComparisonResult.ERROR).count());
-                LOG.info("classes with error wrt jnorm: {}",results.stream().filter(r -> r.result4jnorm==ComparisonResult.ERROR).count());
-                LOG.info("classes with error wrt daleq: {}",results.stream().filter(r -> r.result4daleq==ComparisonResult.ERROR).count());
+    // pairs of classes not in the retry list, the sample or the dead letters are not compared
+    private static boolean skip(String gav, String provider1, String provider2, String clazz) {
+        return (RETRY_LIST != null && !RETRY_LIST.contains(gav, provider1, provider2, clazz))
+            || (SAMPLE != null && !SAMPLE.contains(gav, provider1, provider2, clazz))
+            || (DEAD_LETTERS != null && !DEAD_LETTERS.contains(gav, provider1, provider2, clazz));
+    }
 
-                LOG.info("classes equivalent wrt jnorm not daleq: {}",results.stream().filter(r -> r.result4jnorm==ComparisonResult.EQUIVALENT).filter(r -> r.result4daleq==ComparisonResult.NON_EQUIVALENT).count());
-                LOG.info("classes equivalent wrt javap not daleq: {}",results.stream().filter(r -> r.result4javap==ComparisonResult.EQUIVALENT).filter(r -> r.result4daleq==ComparisonResult.NON_EQUIVALENT).count());
+    // no verdicts are recorded for byte-identical classes, so sampled ones are reported to the sample
+    private static void sampledEqual(String gav, String provider1, String provider2, String clazz) {
+        if (SAMPLE != null) {
+            SAMPLE.addEqual(gav, provider1, provider2, clazz);
+        }
+    }
 
+    // estimates are computed from the verdicts in the manifest, so it must be closed first
+    private static void reportSample() throws IOException {
+        if (SAMPLE != null) {
+            SAMPLE.report(VALIDATION_DB, List.of("javap", "jnorm", "daleq"), MANIFEST.getRun());
+        }
+    }
+
+    // byte-identical jars: all classes are EQUAL (and not reported in the summary), class names are read from the central directory without inflating entries
+    private static void compareIdenticalJars(String provider1, String provider2, PairOfRecords pairOfRecords, AtomicInteger bothJarsEmptyCounter, AtomicInteger classesComparedCounter, AtomicInteger equalClassCounter) throws Exception {
+        String gav = pairOfRecords.left().gav();
+        Set<String> classes = Scheduler.classSizes(pairOfRecords.left().binMainFile()).keySet();
+        if (classes.isEmpty()) {
+            bothJarsEmptyCounter.incrementAndGet();
+        }
+        for (String clazz : classes) {
+            if (skip(gav, provider1, provider2, clazz)) {
+                continue;
             }
+            equalClassCounter.incrementAndGet();
+            classesComparedCounter.incrementAndGet();
+            sampledEqual(gav, provider1, provider2, clazz);
+        }
+        if (RETRY_LIST == null && SAMPLE == null && DEAD_LETTERS == null) {
+            MANIFEST.addJars(gav, provider1, provider2, pairOfRecords.left().binMainMD5(), pairOfRecords.right().binMainMD5(), classes.size(), IDBCache.getFingerprint());
+        }
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
+    // like compareUsing<Tool>, but normal forms are computed at most once for each provider
+    private static ComparisonResult compareNormalForms(NWayComparison.NormalForms normalForms, String gav, String provider1, String provider2, String commonClass, String tool, Path analysisDir) throws IOException {
+        ComparisonResult result = normalForms.compare(provider1, provider2);
+        if (result == ComparisonResult.NON_EQUIVALENT) {
+            Diff.diffAndExport(normalForms.get(provider1).text(), normalForms.get(provider2).text(), diffFile(analysisDir, tool));
+        }
+        else if (result == ComparisonResult.TIMEOUT) {
+            RetryList.add(VALIDATION_DB, gav, provider1, provider2, commonClass, tool);
         }
+        return result;
+    }
+
+    // the analysis folder for a class
+    static Path analysisDir(String gav, String clazz) {
+        String nClassName = clazz.replace("/",".").replace(".class","");
+        // also replace $ char -- this creates issue with souffle
+        nClassName = RunEvaluation.escapeDollarChar(nClassName);
+        return VALIDATION_DB.resolve(gav).resolve(nClassName);
+    }
 
+    // diff files are tool/tool-diff.txt in the analysis folder for a class
+    static Path diffFile(Path analysisDir, String tool) {
+        return analysisDir.resolve(tool).resolve(tool + "-diff.txt");
     }
 
     private static ComparisonResult compareUsingJavap(String gav, String provider1, String provider2, String commonClass, byte[] bytecode1, byte[] bytecode2, Path analysisDir) throws Exception {
@@ -266,26 +636,32 @@ public class RunComparativeEvaluation {
         }
 
         try {
+            long start = System.nanoTime();
             String disassembled1 = javap(gav, provider1, commonClass, bytecode1,analysisDir);
             assert disassembled1 != null;
             String disassembled2 = javap(gav, provider2, commonClass, bytecode2,analysisDir);
             assert disassembled2 != null;
+            StageTimer.stop(StageTimer.Stage.JAVAP,start);
 
             if (disassembled1.equals(disassembled2)) {
                 return ComparisonResult.EQUIVALENT;
             } else {
-                Path diff = analysisDir.resolve("javap/javap-diff.txt");
+                Path diff = diffFile(analysisDir, "javap");
                 Diff.diffAndExport(disassembled1,disassembled2,diff);
                 return ComparisonResult.NON_EQUIVALENT;
             }
         }
+        catch (TimeoutException e) {
+            RetryList.add(VALIDATION_DB, gav, provider1, provider2, commonClass, "javap");
+            return ComparisonResult.TIMEOUT;
+        }
         catch (Exception e) {
             return ComparisonResult.ERROR;
         }
 
     }
 
-    private static String javap(String gav, String provider, String className, byte[] bytecode,Path analysisDir) throws IOException {
+    private static String javap(String gav, String provider, String className, byte[] bytecode,Path analysisDir) throws Exception {
         Path root = analysisDir.resolve("javap");
         root = root.resolve(provider);
         Path javapFile = root.resolve(className.replace(".class", ".javap"));
@@ -293,7 +669,17 @@ public class RunComparativeEvaluation {
         if (!Files.exists(javapFile) || !Files.isRegularFile(classFile)) {
             Files.createDirectories(classFile.getParent());
             Files.write(classFile, bytecode);
-            byte[] javap = Javap.run(classFile, javapFile);
+            long time = System.currentTimeMillis();
+            byte[] javap;
+            try {
+                javap = Throttle.call(Throttle.CPU, () -> Watchdog.run(() -> Javap.run(classFile, javapFile), Watchdog.JAVAP_TIMEOUT_IN_SEC, null));
+            }
+            catch (Exception x) {
+                // an abandoned run must not leave a result file that later runs (or retries) would mistake for a cached printout
+                Files.deleteIfExists(javapFile);
+                throw x;
+            }
+            MANIFEST.addArtifact(gav, className, provider, "javap", javapFile, System.currentTimeMillis() - time, javap);
             return new String(javap);
         }
         else {
@@ -316,11 +702,15 @@ public class RunComparativeEvaluation {
             if (idb1.equals(idb2)) {
                 return ComparisonResult.EQUIVALENT;
             } else {
-                Path diff = analysisDir.resolve("daleq/daleq-diff.txt");
+                Path diff = diffFile(analysisDir, "daleq");
                 Diff.diffAndExport(idb1,idb2,diff);
                 return ComparisonResult.NON_EQUIVALENT;
             }
         }
+        catch (TimeoutException e) {
+            RetryList.add(VALIDATION_DB, gav, provider1, provider2, commonClass, "daleq");
+            return ComparisonResult.TIMEOUT;
+        }
         catch (Exception e) {
             return ComparisonResult.ERROR;
         }
@@ -328,88 +718,9 @@ public class RunComparativeEvaluation {
     }
 
     private static String computeAndSerializeIDB (String gav, String provider, String className, byte[] bytecode,Path analysisDir) throws Exception {
-
         Path root = analysisDir.resolve("daleq");
         root = root.resolve(provider);
-        Path edbRoot = root.resolve("edb");
-        Path edbFactDir = edbRoot.resolve( "facts");
-        Path edbDef = edbRoot.resolve("db.souffle");
-        Path idbRoot = root.resolve("idb");
-        Path idbFactDir = idbRoot.resolve( "facts");
-        Path mergedEDBAndRules = root.resolve("mergedEDBAndRules.souffle");
-        Path idbPrintout = root.resolve("idb-full.txt");
-        Path idbProjectedPrintout = root.resolve("idb-projected.txt");
-
-        if (Files.exists(idbProjectedPrintout)) {
-            LOG.info("Using already computed IDB (projected printout) {}", idbProjectedPrintout);
-            String report = Files.readAllLines(idbProjectedPrintout).stream().collect(Collectors.joining(System.lineSeparator()));
-            return report;
-        }
-        else {
-
-            long time = System.currentTimeMillis();
-            Files.createDirectories(edbFactDir);
-
-            // copy bytecode to file as fact extraction used files as input
-            Path classFile = root.resolve(className.substring(className.lastIndexOf("/") + 1));
-            Files.write(classFile, bytecode);
-
-            // build EDB
-            if (Files.exists(edbDef)) {
-                IOUtil.deleteDir(edbFactDir);
-            }
-            else {
-                Files.createDirectories(edbFactDir);
-            }
-
-            try {
-                FactExtractor.extractAndExport(classFile, edbDef, edbFactDir, true);
-                LOG.info("EBD extracted for {} in {} provided by {} in dir {}", className, gav, provider, edbRoot);
-
-                if (Files.exists(idbFactDir)) {
-                    IOUtil.deleteDir(idbFactDir);
-                } else {
-                    Files.createDirectories(idbFactDir);
-                }
-
-                Souffle.createIDB(edbDef, Rules.defaultRules(), edbFactDir, idbFactDir, mergedEDBAndRules);
-                LOG.info("IBD computed for {} in {} provided by {} in dir {}", className, gav, provider, idbFactDir);
-
-                // there might be a race condition is souffle that some background thread is still writing the IDB when createIDB returns
-                // there have been cased when facts where missing, leading to NPEs when printing the IDB
-                // but upon inspection, those facts where there
-                // try to mitigate with this for now
-                Thread.sleep(500);
-
-                // load IDB
-                IDB idb = IDBReader.read(idbFactDir);
-
-                String idbOut = IDBPrinter.print(idb);
-                String idbProjectedOut = IDBPrinter.print(idb.project());
-
-                Files.write(idbPrintout, idbOut.getBytes());
-                Files.write(idbProjectedPrintout, idbProjectedOut.getBytes());
-
-                // cleanup !
-                RunEvaluation.cleanupDBDir(edbRoot, RETENTION_POLICY);
-                RunEvaluation.cleanupDBDir(idbRoot, RETENTION_POLICY);
-                RunEvaluation.cleanupFile(mergedEDBAndRules, RETENTION_POLICY);
-                RunEvaluation.cleanupFile(idbPrintout, RETENTION_POLICY);
-
-                long duration = System.currentTimeMillis() - time;
-                Path timeTaken = root.resolve("computation-time-in-ms.txt");
-                Files.write(timeTaken, String.valueOf(duration).getBytes());
-
-                return idbProjectedOut;
-            }
-            catch (Exception e) {
-                Path errorLog = root.resolve("error.txt");
-                try (PrintWriter out = new PrintWriter(errorLog.toFile())) {
-                    e.printStackTrace(out);
-                }
-                throw e;
-            }
-        }
+        return IDBCache.computeAndSerializeIDB(gav, provider, className, bytecode, root, RETENTION_POLICY, MANIFEST);
     }
 
     private static ComparisonResult compareUsingJNorm(String gav, String provider1, String provider2, Path jar1, Path jar2, String commonClass, byte[] bytecode1, byte[] bytecode2, Path analysisDir4Gav,Path analysisDir4GavNClass) throws Exception {
@@ -418,26 +729,33 @@ public class RunComparativeEvaluation {
         }
 
         try {
+            long start = System.nanoTime();
             String jimple1 = jnorm(gav, provider1, jar1, commonClass, bytecode1,analysisDir4Gav,analysisDir4GavNClass);
             assert jimple1 != null;
             String jimple2 = jnorm(gav, provider2, jar2, commonClass, bytecode2,analysisDir4Gav,analysisDir4GavNClass);
             assert jimple2 != null;
+            StageTimer.stop(StageTimer.Stage.JNORM,start);
 
             if (jimple1.equals(jimple2)) {
                 return ComparisonResult.EQUIVALENT;
             } else {
-                Path diff = analysisDir4GavNClass.resolve("jnorm/jnorm-diff.txt");
+                Path diff = diffFile(analysisDir4GavNClass, "jnorm");
                 Diff.diffAndExport(jimple1,jimple2,diff);
                 return ComparisonResult.NON_EQUIVALENT;
             }
         }
+        catch (TimeoutException e) {
+            LOG.error("Timeout evaluating jnorm-based equivalance",e);
+            RetryList.add(VALIDATION_DB, gav, provider1, provider2, commonClass, "jnorm");
+            return ComparisonResult.TIMEOUT;
+        }
         catch (Exception e) {
             LOG.error("Error evaluating jnorm-based equivalance",e);
             return ComparisonResult.ERROR;
         }
     }
 
-    private static String jnorm(String gav, String provider, Path jar, String className, byte[] bytecode,Path analysisDir4Gav,Path analysisDir4GavNClass) throws IOException, InterruptedException {
+    private static String jnorm(String gav, String provider, Path jar, String className, byte[] bytecode,Path analysisDir4Gav,Path analysisDir4GavNClass) throws IOException, InterruptedException, TimeoutException {
         Path dir1 = analysisDir4GavNClass.resolve("jnorm").resolve(provider);
         Path dir2 = analysisDir4Gav.resolve("__jnorm-jar-cache").resolve(provider);
         if (!Files.exists(dir1)) {
@@ -448,16 +766,49 @@ public class RunComparativeEvaluation {
         }
         Path jnormOutDir = dir2.resolve("jnormalised");
         Path jnormError = dir2.resolve("jnorm-error.txt");
+        Path jnormTimeout = dir2.resolve("jnorm-timeout.txt"); // contains the budget that has been exceeded
         Path jimpleFile = dir1.resolve(className.replace(".class", ".jimple"));
         Path classFile = dir1.resolve(className);
-        if (!Files.exists(jnormOutDir)) {
-            int status = jnorm(jar,jnormOutDir,jnormError);
-            if (status != 0) {
-                // todo: parse error file and check whether error is cased by jnorm (asm) not supporting bytecode version
-                // could handle those as SKIP instead of error
-                throw new IOException("Error running jnorm");
+        // classes of the same jar may be compared concurrently, jnorm must only run once
+        JNormLock jnormLock = JNORM_LOCKS.compute(dir2, (k, l) -> {
+            JNormLock l2 = l == null ? new JNormLock() : l;
+            l2.users = l2.users + 1;
+            return l2;
+        });
+        try {
+            jnormLock.lock.lockInterruptibly();
+            try {
+                if (!Files.exists(jnormOutDir)) {
+                    // jnorm is run once per jar, do not try again for each class if it has timed out, unless the budget has been increased
+                    if (Files.exists(jnormTimeout) && Watchdog.JNORM_TIMEOUT_IN_SEC > 0 && Long.parseLong(Files.readString(jnormTimeout).trim()) >= Watchdog.JNORM_TIMEOUT_IN_SEC) {
+                        throw new TimeoutException("jnorm has timed out before for " + jar);
+                    }
+                    int status = 0;
+                    try {
+                        status = jnorm(jar,jnormOutDir,jnormError);
+                    }
+                    catch (TimeoutException e) {
+                        if (Files.exists(jnormOutDir)) {
+                            IOUtil.deleteDir(jnormOutDir);
+                        }
+                        Files.writeString(jnormTimeout, String.valueOf(Watchdog.JNORM_TIMEOUT_IN_SEC));
+                        throw e;
+                    }
+                    Files.deleteIfExists(jnormTimeout);
+                    if (status != 0) {
+                        // todo: parse error file and check whether error is cased by jnorm (asm) not supporting bytecode version
+                        // could handle those as SKIP instead of error
+                        throw new IOException("Error running jnorm");
+                    }
+                }
+            }
+            finally {
+                jnormLock.lock.unlock();
             }
         }
+        finally {
+            JNORM_LOCKS.computeIfPresent(dir2, (k, l) -> --l.users == 0 ? null : l);
+        }
 
         assert Files.exists(jnormOutDir);
         String jnormOutputName = className.replace("/",".").replace(".class",".jimple");
@@ -475,19 +826,24 @@ public class RunComparativeEvaluation {
 
         Files.write(classFile, bytecode);
 
-        return Files.readString(jimpleFile);
+        // jnorm is run once per jar, so there is no time for individual classes
+        byte[] jimple = Files.readAllBytes(jimpleFile);
+        MANIFEST.addArtifact(gav, className, provider, "jnorm", jimpleFile, -1, jimple);
+        return new String(jimple, StandardCharsets.UTF_8);
 
     }
 
-    private static int jnorm(Path jar, Path jnormJar,Path errorFile) throws IOException, InterruptedException {
-        LOG.info("running jnorm on {} , output saved to {}", jar, jnormJar);
+    private static int jnorm(Path jar, Path jnormJar,Path errorFile) throws IOException, InterruptedException, TimeoutException {
+        try (ProcessGovernor.Lease lease = ProcessGovernor.acquire(ProcessGovernor.Tool.JNORM, jnormJar)) {
+            LOG.info("running jnorm on {} , output saved to {}", jar, jnormJar);
 
-        Process process = new ProcessBuilder()
-            .command(JAVA11_EXE,"-jar",JNORM.toString(),"-n","-i",jar.toString(),"-d",jnormJar.toString())
-            .inheritIO()
-            .redirectError(errorFile.toFile())
-            .start();
-        return process.waitFor();
+            Process process = new ProcessBuilder()
+                .command(JAVA11_EXE,"-jar",JNORM.toString(),"-n","-i",jar.toString(),"-d",jnormJar.toString())
+                .inheritIO()
+                .redirectError(errorFile.toFile())
+                .start();
+            return Watchdog.waitFor(process, Watchdog.JNORM_TIMEOUT_IN_SEC);
+        }
     }
 
 }
@@ -2,24 +2,19 @@ package io.github.bineq.daleq.evaluation;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
-import com.google.gson.Gson;
 import io.github.bineq.daleq.IOUtil;
-import io.github.bineq.daleq.Rules;
-import io.github.bineq.daleq.Souffle;
-import io.github.bineq.daleq.edb.FactExtractor;
-import io.github.bineq.daleq.idb.IDB;
-import io.github.bineq.daleq.idb.IDBPrinter;
-import io.github.bineq.daleq.idb.IDBReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.net.MalformedURLException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -34,8 +29,10 @@ public class RunEvaluation {
 
     final static Logger LOG = LoggerFactory.getLogger(RunEvaluation.class);
 
-    final static Path SAME_SOURCE_CACHE = Path.of("same_sources.json");
-    private static final Map<String,Map<String,Set<String>>> GAVS_WITH_SAME_RESOURCES = loadSameSourcesCache();
+    // location of the same sources cache can be overridden, e.g. to use a synthetic dataset
+    public static final String SAME_SOURCES = "SAME_SOURCES";
+    final static Path SAME_SOURCE_CACHE = Path.of(System.getProperty(SAME_SOURCES,"same_sources.json"));
+    private static final SameSourcesIndex GAVS_WITH_SAME_RESOURCES = new SameSourcesIndex(SAME_SOURCE_CACHE);
     private static Path VALIDATION_DB = null;
     private static final boolean REUSE_IDB = true;
 
@@ -44,6 +41,17 @@ public class RunEvaluation {
 
     private static final boolean COUNT_ONLY = false;
 
+    // if set, only pairs of classes in this list are compared
+    private static RetryList RETRY_LIST = null;
+
+    // if set (-DSAMPLE), only pairs of classes in this sample are compared
+    private static Sampling SAMPLE = null;
+
+    // if set (-DDEAD_LETTERS), only pairs of jars and classes that have failed before are compared
+    private static DeadLetters DEAD_LETTERS = null;
+
+    // artifacts and verdicts are recorded for analysis tools
+    private static Manifest MANIFEST = null;
 
     public static void main (String[] args) throws Exception {
 
@@ -72,6 +80,11 @@ public class RunEvaluation {
             }
 
 
+            RETRY_LIST = RetryList.loadIfSet(VALIDATION_DB);
+            DEAD_LETTERS = DeadLetters.loadIfSet(VALIDATION_DB);
+            Incremental incremental = Incremental.loadIfEnabled(VALIDATION_DB);
+            MANIFEST = Manifest.open(VALIDATION_DB);
+
             List<Path> datasets = Stream.of(args).skip(1)
                     .map(arg -> {
                         Path path = Path.of(arg);
@@ -91,7 +104,9 @@ public class RunEvaluation {
                     .map(f -> {
                         try {
                             LOG.info("Parsing records from " + f);
+                            long start = System.nanoTime();
                             Set<Record> records = parseRecords(f);
+                            StageTimer.stop(StageTimer.Stage.PARSE_INDEX,start);
                             LOG.info("\t" + records.size() + " parsed");
                             return records;
                         } catch (IOException e) {
@@ -99,15 +114,77 @@ public class RunEvaluation {
                             throw new RuntimeException(e);
                         }
                     }).collect(Collectors.toUnmodifiableList());
+            SAMPLE = Sampling.drawIfEnabled(VALIDATION_DB, providers, setsOfRecords, sourceEquivalenceMode);
 
-            List<ResultRecord> results = new ArrayList<>();
-            Map<Path,Map<String,Content>> cache = new ConcurrentHashMap<>();
+            // results are counted as they arrive, verdicts for jars are the worst verdicts for their classes
+            VerdictCounter classVerdicts = new VerdictCounter();
+            VerdictCounter jarVerdicts = new VerdictCounter();
+            // bounded, jars are evicted when no upcoming pair of jars needs them
+            JarCache cache = new JarCache();
 
             int N = datasets.size()*(datasets.size()-1)/2;
             AtomicInteger pairsOfJarsRecordCounter = new AtomicInteger(0);
             AtomicInteger classesComparedCounter = new AtomicInteger(0);
             AtomicInteger pairOfRecordsCounter = new AtomicInteger(0);
             AtomicInteger bothJarsEmptyCounter = new AtomicInteger(0);
+            AtomicInteger carriedForwardCounter = new AtomicInteger(0);
+
+            // pairs of jars selected for this run
+            NWayComparison.PairFilter selected = (provider1, provider2, pairOfRecords) -> {
+                if (SAMPLE != null && !SAMPLE.contains(pairOfRecords.left().gav(), provider1, provider2)) {
+                    return false;
+                }
+                if (DEAD_LETTERS != null && !DEAD_LETTERS.contains(pairOfRecords.left().gav(), provider1, provider2)) {
+                    return false;
+                }
+                if (RETRY_LIST != null) {
+                    return RETRY_LIST.contains(pairOfRecords.left().gav(), provider1, provider2);
+                }
+                return true;
+            };
+
+            // results of previous runs for pairs of jars that have not changed are carried forward (not for retries and replays of dead letters)
+            Map<String,Incremental.CarriedForward> carriedForward = incremental == null || RETRY_LIST != null || DEAD_LETTERS != null
+                ? Map.of()
+                : incremental.getCarriedForward(providers, setsOfRecords, sourceEquivalenceMode, selected);
+            for (Incremental.CarriedForward previous : carriedForward.values()) {
+                carriedForwardCounter.incrementAndGet();
+                pairOfRecordsCounter.incrementAndGet();
+                ComparisonResult jarVerdict = null;
+                for (Manifest.Verdict verdict : previous.verdicts()) {
+                    if (verdict.tool().equals("daleq")) {
+                        classVerdicts.add(verdict.result());
+                        jarVerdict = VerdictCounter.worst(jarVerdict, verdict.result());
+                        classesComparedCounter.incrementAndGet();
+                    }
+                }
+                if (jarVerdict != null) {
+                    jarVerdicts.add(jarVerdict);
+                }
+            }
+
+            // pairs of jars to be compared
+            NWayComparison.PairFilter include = (provider1, provider2, pairOfRecords) ->
+                selected.include(provider1, provider2, pairOfRecords) && !carriedForward.containsKey(Manifest.key(pairOfRecords.left().gav(), provider1, provider2));
+
+            if (NWayComparison.ENABLED) {
+                // the jars built by all providers for a GAV are compared in one go
+                List<NWayComparison.GAVWork> schedule = NWayComparison.schedule(providers, setsOfRecords, sourceEquivalenceMode, include);
+                schedule.forEach(work -> work.jars().forEach(cache::expect));
+                AtomicInteger counter = new AtomicInteger(0);
+                Scheduler.run(schedule, work -> {
+                    pairOfRecordsCounter.addAndGet(work.pairs().size());
+                    int progress = counter.incrementAndGet();
+                    if (progress%10==0) {
+                        LOG.info("\tprogress GAV(s) " + progress + "/" + schedule.size());
+                    }
+                    compareNWay(work, cache, classVerdicts, jarVerdicts, bothJarsEmptyCounter, classesComparedCounter);
+                });
+                logResults(pairOfRecordsCounter, carriedForwardCounter, bothJarsEmptyCounter, classesComparedCounter, cache, classVerdicts, jarVerdicts);
+                MANIFEST.close();
+                reportSample();
+                return;
+            }
 
             for (int i = 0; i < datasets.size(); i++) {
                 String provider1 = providers.get(i);
@@ -119,7 +196,9 @@ public class RunEvaluation {
                     Set<Record> records2 = setsOfRecords.get(j);
 
                     // GUARD TO ONLY COMPARE RECORDS WITH MATCHING SOURCE FILES !
+                    long start = System.nanoTime();
                     Set<PairOfRecords> pairsOfRecords = findMatchingRecordsWithSameSources(provider1, provider2, records1, records2, sourceEquivalenceMode);
+                    StageTimer.stop(StageTimer.Stage.MATCH_RECORDS,start);
 
                     LOG.info("Matching records (GAVs with equivalent sources for both providers): " + pairsOfRecords.size());
                     LOG.info("\tprogress: " + pairsOfJarsRecordCounter + " / " + N);
@@ -128,95 +207,298 @@ public class RunEvaluation {
 
                     AtomicInteger counter2 = new AtomicInteger(0);
 
-                    // serial makes debugging easier as records appear in predictable order in results
-                    pairsOfRecords.stream().forEach(pairOfRecords -> {
+                    // most expensive jars first, serial unless -DTHREADS is set (serial makes debugging easier as records appear in predictable order in results)
+                    List<PairOfRecords> schedule = Scheduler.largestFirst(pairsOfRecords.stream()
+                        .filter(pairOfRecords -> include.include(provider1, provider2, pairOfRecords))
+                        .collect(Collectors.toList()));
+                    cache.expect(schedule);
+                    Scheduler.run(schedule, pairOfRecords -> {
                         pairOfRecordsCounter.incrementAndGet();
-                        counter2.incrementAndGet();
-                        if (counter2.get()%10==0) {
-                            LOG.info("\tprogress dataset pair " + pairsOfJarsRecordCounter.get() + "/" + N + " , jar(s) " + counter2.get() + "/" + pairsOfRecords.size());
+                        int progress = counter2.incrementAndGet();
+                        if (progress%10==0) {
+                            LOG.info("\tprogress dataset pair " + pairsOfJarsRecordCounter.get() + "/" + N + " , jar(s) " + progress + "/" + schedule.size());
                         }
                         LOG.debug("Loading classes for {} with providers {} and {}",pairOfRecords.left().gav(),provider1,provider2);
                         try {
-                            Map<String, Content> classes1 = loadClasses(cache, pairOfRecords.left().binMainFile());
-                            Map<String, Content> classes2 = loadClasses(cache, pairOfRecords.right().binMainFile());
-                            if (classes1.size()==0 && classes2.size()==0) {
-                                bothJarsEmptyCounter.incrementAndGet();
-                            }
-                            String gav = pairOfRecords.left().gav();
-                            assert gav.equals(pairOfRecords.right().gav());
-                            Set<String> commonClasses = Sets.intersection(classes1.keySet(), classes2.keySet());
-
-                            commonClasses.stream().forEach(commonClass -> {
-                                Content clazz1 = classes1.get(commonClass);
-                                Content clazz2 = classes2.get(commonClass);
-
-                                // LOG.info("TODO: compare classes {}",commonClass);
-                                if (!COUNT_ONLY) {
-                                    ResultRecord resultRecord = null;
-                                    try {
-                                        resultRecord = compare(pairOfRecords.left().gav(), provider1, provider2, commonClass, clazz1.load(), clazz2.load());
-                                    } catch (Exception e) {
-                                        throw new RuntimeException(e);
+                            // if this fails, the pair of jars is recorded as dead letter and the run continues
+                            DeadLetters.isolate(VALIDATION_DB, pairOfRecords.left().gav(), provider1, provider2, null, () -> {
+                                if (JarDigests.isIdentical(pairOfRecords.left(), pairOfRecords.right())) {
+                                    compareIdenticalJars(provider1, provider2, pairOfRecords, classVerdicts, jarVerdicts, bothJarsEmptyCounter, classesComparedCounter);
+                                    return;
+                                }
+                                long start2 = System.nanoTime();
+                                Map<String, Content> classes1 = cache.getClasses(pairOfRecords.left().binMainFile());
+                                Map<String, Content> classes2 = cache.getClasses(pairOfRecords.right().binMainFile());
+                                StageTimer.stop(StageTimer.Stage.LOAD_CLASSES,start2);
+                                if (classes1.size()==0 && classes2.size()==0) {
+                                    bothJarsEmptyCounter.incrementAndGet();
+                                }
+                                String gav = pairOfRecords.left().gav();
+                                assert gav.equals(pairOfRecords.right().gav());
+                                Map<String,Long> sizes1 = cache.getClassSizes(pairOfRecords.left().binMainFile());
+                                Map<String,Long> sizes2 = cache.getClassSizes(pairOfRecords.right().binMainFile());
+                                List<String> commonClasses = EarlyTermination.ENABLED
+                                    ? EarlyTermination.mostLikelyToDifferFirst(
+                                        Sets.intersection(classes1.keySet(), classes2.keySet()),
+                                        EarlyTermination.classEntries(pairOfRecords.left().binMainFile()),
+                                        EarlyTermination.classEntries(pairOfRecords.right().binMainFile()))
+                                    : Scheduler.largestFirst(Sets.intersection(classes1.keySet(), classes2.keySet()), sizes1, sizes2);
+
+                                AtomicReference<ComparisonResult> jarVerdict = new AtomicReference<>();
+                                AtomicBoolean settled = new AtomicBoolean(false);
+                                AtomicBoolean failed = new AtomicBoolean(false);
+                                Scheduler.runClasses(commonClasses, EarlyTermination.ENABLED, commonClass -> {
+                                    if (skip(gav, provider1, provider2, commonClass)) {
+                                        return;
                                     }
-                                    results.add(resultRecord);
+                                    if (EarlyTermination.isSettled(jarVerdict.get())) {
+                                        settled.set(true);
+                                        EarlyTermination.skip(Math.max(sizes1.getOrDefault(commonClass, 0L), sizes2.getOrDefault(commonClass, 0L)));
+                                        return;
+                                    }
+                                    Content clazz1 = classes1.get(commonClass);
+                                    Content clazz2 = classes2.get(commonClass);
+
+                                    // LOG.info("TODO: compare classes {}",commonClass);
+                                    if (!COUNT_ONLY) {
+                                        // if this fails, the pair of classes is recorded as dead letter and the run continues
+                                        boolean compared = DeadLetters.isolate(VALIDATION_DB, gav, provider1, provider2, commonClass, () -> {
+                                            ResultRecord resultRecord = null;
+                                            long start3 = System.nanoTime();
+                                            try {
+                                                resultRecord = compare(pairOfRecords.left().gav(), provider1, provider2, commonClass, clazz1.load(), clazz2.load());
+                                            }
+                                            finally {
+                                                // bytecode is only retained while classes are compared
+                                                clazz1.release();
+                                                clazz2.release();
+                                            }
+                                            StageTimer.stop(StageTimer.Stage.COMPARE_CLASSES,start3);
+                                            classVerdicts.add(resultRecord.result());
+                                            jarVerdict.accumulateAndGet(resultRecord.result(), VerdictCounter::worst);
+                                            MANIFEST.addVerdict(gav, commonClass, provider1, provider2, "daleq", resultRecord.result(), null);
+                                        });
+                                        if (!compared) {
+                                            failed.set(true);
+                                            return;
+                                        }
+                                    }
+                                    classesComparedCounter.incrementAndGet();
+                                });
+                                if (settled.get()) {
+                                    // only known to be at least NON_EQUIVALENT, reported separately
+                                    EarlyTermination.settled();
+                                }
+                                else if (jarVerdict.get() != null) {
+                                    jarVerdicts.add(jarVerdict.get());
+                                }
+                                else if (!failed.get() && RETRY_LIST == null && SAMPLE == null && DEAD_LETTERS == null) {
+                                    MANIFEST.addJars(gav, provider1, provider2, pairOfRecords.left().binMainMD5(), pairOfRecords.right().binMainMD5(), commonClasses.size(), IDBCache.getFingerprint());
                                 }
-                                classesComparedCounter.incrementAndGet();
                             });
                         }
-                        catch (Exception e) {
-                            throw new RuntimeException(e);
+                        finally {
+                            cache.release(pairOfRecords.left().binMainFile());
+                            cache.release(pairOfRecords.right().binMainFile());
                         }
                     });
                 }
 
-                LOG.info("pairs of records processed: {}",pairOfRecordsCounter.get());
-                LOG.info("pairs where both jars have no .class files: {}",bothJarsEmptyCounter.get());
-                LOG.info("classes compared: {}",classesComparedCounter.get());
-
-                int equalClassesCount = (int)results.stream().filter(r -> r.result()==ComparisonResult.EQUAL).count();
-                int equivalentClassesCount = (int)results.stream().filter(r -> r.result()==ComparisonResult.EQUIVALENT).count();
-                int classPairWithEvaluationErrorCount = (int)results.stream().filter(r -> r.result()==ComparisonResult.ERROR).count();
-                int differentClassesCount = (int)results.stream().filter(r -> r.result()==ComparisonResult.NON_EQUIVALENT).count();
+                logResults(pairOfRecordsCounter, carriedForwardCounter, bothJarsEmptyCounter, classesComparedCounter, cache, classVerdicts, jarVerdicts);
+            }
 
-                LOG.info("pairs of classes with same bytecode: {}",equalClassesCount);
-                LOG.info("pairs of classes are equivalent (same IDB but diff bytecode): {}",equivalentClassesCount);
-                LOG.info("pairs of classes that are different: {}",differentClassesCount);
-                LOG.info("pairs of classes with error during evaluation: {}",classPairWithEvaluationErrorCount);
+            MANIFEST.close();
+            reportSample();
 
-                List<ResultRecord> aggregatedResultRecordsForJars = aggregate(results);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
 
-                int allClassesInJarEqualCount = (int)aggregatedResultRecordsForJars.stream().filter(r -> r.result()==ComparisonResult.EQUAL).count();
-                int allClassesInJarEquivalentCount = (int)aggregatedResultRecordsForJars.stream().filter(r -> r.result()==ComparisonResult.EQUIVALENT).count();
-                int someClassesInJarWithEvaluationErrorCount = (int)aggregatedResultRecordsForJars.stream().filter(r -> r.result()==ComparisonResult.ERROR).count();
-                int someClassesInJarNonEquivalentCount = (int)aggregatedResultRecordsForJars.stream().filter(r -> r.result()==ComparisonResult.NON_EQUIVALENT).count();
+    }
 
-                LOG.info("pairs of jars with all classes having the same bytecode: {}",allClassesInJarEqualCount);
-                LOG.info("pairs of jars with all classes being equivalent: {}",allClassesInJarEquivalentCount);
-                LOG.info("pairs of jars with some classes not being equivalent: {}",someClassesInJarNonEquivalentCount);
-                LOG.info("pairs of jars with some errors during evaluation: {}",someClassesInJarWithEvaluationErrorCount);
+    // pairs of classes not in the retry list, the sample or the dead letters are not compared
+    private static boolean skip(String gav, String provider1, String provider2, String clazz) {
+        return (RETRY_LIST != null && !RETRY_LIST.contains(gav, provider1, provider2, clazz))
+            || (SAMPLE != null && !SAMPLE.contains(gav, provider1, provider2, clazz))
+            || (DEAD_LETTERS != null && !DEAD_LETTERS.contains(gav, provider1, provider2, clazz));
+    }
 
+    // estimates are computed from the verdicts in the manifest, so it must be closed first
+    private static void reportSample() throws IOException {
+        if (SAMPLE != null) {
+            SAMPLE.report(VALIDATION_DB, List.of("daleq"), MANIFEST.getRun());
+        }
+    }
 
+    /**
+     * Record the results for a pair of byte-identical jars: all classes are EQUAL.
+     * Class names are read from the central directory, no entries are inflated.
+     */
+    private static void compareIdenticalJars(String provider1, String provider2, PairOfRecords pairOfRecords, VerdictCounter classVerdicts, VerdictCounter jarVerdicts, AtomicInteger bothJarsEmptyCounter, AtomicInteger classesComparedCounter) throws Exception {
+        String gav = pairOfRecords.left().gav();
+        Set<String> classes = Scheduler.classSizes(pairOfRecords.left().binMainFile()).keySet();
+        if (classes.isEmpty()) {
+            bothJarsEmptyCounter.incrementAndGet();
+        }
+        boolean compared = false;
+        for (String clazz : classes) {
+            if (skip(gav, provider1, provider2, clazz)) {
+                continue;
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
+            if (!COUNT_ONLY) {
+                classVerdicts.add(ComparisonResult.EQUAL);
+                MANIFEST.addVerdict(gav, clazz, provider1, provider2, "daleq", ComparisonResult.EQUAL, null);
+                compared = true;
+            }
+            classesComparedCounter.incrementAndGet();
+        }
+        if (compared) {
+            jarVerdicts.add(ComparisonResult.EQUAL);
+        }
+        if (RETRY_LIST == null && SAMPLE == null && DEAD_LETTERS == null) {
+            MANIFEST.addJars(gav, provider1, provider2, pairOfRecords.left().binMainMD5(), pairOfRecords.right().binMainMD5(), classes.size(), IDBCache.getFingerprint());
         }
+    }
 
+    private static void logResults(AtomicInteger pairOfRecordsCounter, AtomicInteger carriedForwardCounter, AtomicInteger bothJarsEmptyCounter, AtomicInteger classesComparedCounter, JarCache cache, VerdictCounter classVerdicts, VerdictCounter jarVerdicts) {
+        LOG.info("pairs of records processed: {}",pairOfRecordsCounter.get());
+        LOG.info("pairs of records with results carried forward from previous runs: {}",carriedForwardCounter.get());
+        LOG.info("pairs where both jars have no .class files: {}",bothJarsEmptyCounter.get());
+        LOG.info("classes compared: {}",classesComparedCounter.get());
+        cache.logStats();
+        JarDigests.logStats();
+        EarlyTermination.logStats();
+        DeadLetters.logStats();
+
+        LOG.info("pairs of classes with same bytecode: {}",classVerdicts.get(ComparisonResult.EQUAL));
+        LOG.info("pairs of classes are equivalent (same IDB but diff bytecode): {}",classVerdicts.get(ComparisonResult.EQUIVALENT));
+        LOG.info("pairs of classes that are different: {}",classVerdicts.get(ComparisonResult.NON_EQUIVALENT));
+        LOG.info("pairs of classes with error during evaluation: {}",classVerdicts.get(ComparisonResult.ERROR));
+        LOG.info("pairs of classes with timeout during evaluation: {}",classVerdicts.get(ComparisonResult.TIMEOUT));
+
+        LOG.info("pairs of jars with all classes having the same bytecode: {}",jarVerdicts.get(ComparisonResult.EQUAL));
+        LOG.info("pairs of jars with all classes being equivalent: {}",jarVerdicts.get(ComparisonResult.EQUIVALENT));
+        LOG.info("pairs of jars with some classes not being equivalent: {}",jarVerdicts.get(ComparisonResult.NON_EQUIVALENT));
+        LOG.info("pairs of jars with some errors during evaluation: {}",jarVerdicts.get(ComparisonResult.ERROR));
+        LOG.info("pairs of jars with some timeouts during evaluation: {}",jarVerdicts.get(ComparisonResult.TIMEOUT));
     }
 
-    private static List<ResultRecord> aggregate(List<ResultRecord> results) {
-        Map<String,ResultRecord> resultsByJar = new HashMap<>();
-        for (ResultRecord resultRecord : results) {
-            ResultRecord result1 = new ResultRecord(resultRecord.gav(),resultRecord.provider1(),resultRecord.provider2(),"any",resultRecord.result());
-            String gav = result1.gav();
-            ResultRecord result2 = resultsByJar.get(gav);
-            if (result2==null || result2.result().compareTo(result1.result())<0) {
-                // need to add or replace value
-                resultsByJar.put(gav,result1);
-            }
+    // compare the jars built by all providers for a GAV, the IDB for each version of a class is computed at most once
+    private static void compareNWay(NWayComparison.GAVWork gavWork, JarCache cache, VerdictCounter classVerdicts, VerdictCounter jarVerdicts, AtomicInteger bothJarsEmptyCounter, AtomicInteger classesComparedCounter) {
+        String gav = gavWork.gav();
+        // if this fails, all pairs of jars for the GAV are recorded as dead letters and the run continues
+        List<DeadLetters.Item> items = gavWork.pairs().stream().map(pair -> new DeadLetters.Item(gav, pair.provider1(), pair.provider2(), null)).toList();
+        try {
+            DeadLetters.isolate(VALIDATION_DB, items, () -> {
+                Map<NWayComparison.ProviderPair,PairOfRecords> identicalJars = new LinkedHashMap<>();
+                NWayComparison.GAVWork work = NWayComparison.withoutIdenticalJars(gavWork, identicalJars);
+                for (Map.Entry<NWayComparison.ProviderPair,PairOfRecords> entry : identicalJars.entrySet()) {
+                    compareIdenticalJars(entry.getKey().provider1(), entry.getKey().provider2(), entry.getValue(), classVerdicts, jarVerdicts, bothJarsEmptyCounter, classesComparedCounter);
+                }
+                if (work.pairs().isEmpty()) {
+                    return;
+                }
+                LOG.debug("Loading classes for {} with providers {}",gav,work.records().keySet());
+                long start = System.nanoTime();
+                Map<String,Map<String,Content>> classes = new HashMap<>();
+                Map<String,Map<String,Long>> classSizes = new HashMap<>();
+                for (Map.Entry<String,Record> entry : work.records().entrySet()) {
+                    classes.put(entry.getKey(), cache.getClasses(entry.getValue().binMainFile()));
+                    classSizes.put(entry.getKey(), cache.getClassSizes(entry.getValue().binMainFile()));
+                }
+                StageTimer.stop(StageTimer.Stage.LOAD_CLASSES,start);
+
+                for (NWayComparison.ProviderPair pair : work.pairs()) {
+                    if (classes.get(pair.provider1()).size()==0 && classes.get(pair.provider2()).size()==0) {
+                        bothJarsEmptyCounter.incrementAndGet();
+                    }
+                }
+
+                List<String> classesToCompare = NWayComparison.getClassesToCompare(work, classes, classSizes);
+                if (EarlyTermination.ENABLED) {
+                    Map<String,Map<String,EarlyTermination.ClassEntry>> entries = new HashMap<>();
+                    for (Map.Entry<String,Record> entry : work.records().entrySet()) {
+                        entries.put(entry.getKey(), EarlyTermination.classEntries(entry.getValue().binMainFile()));
+                    }
+                    classesToCompare = EarlyTermination.mostLikelyToDifferFirst(classesToCompare,
+                        clazz -> work.pairs().stream().mapToInt(pair -> EarlyTermination.differences(entries.get(pair.provider1()).get(clazz), entries.get(pair.provider2()).get(clazz))).sum(),
+                        clazz -> entries.values().stream().mapToLong(e -> EarlyTermination.size(e.get(clazz))).max().orElse(0));
+                }
+
+                // verdicts for pairs of jars are the worst verdicts for their classes
+                Map<NWayComparison.ProviderPair,ComparisonResult> jarVerdictsByPair = new ConcurrentHashMap<>();
+                Set<NWayComparison.ProviderPair> settledPairs = ConcurrentHashMap.newKeySet();
+                Set<NWayComparison.ProviderPair> failedPairs = ConcurrentHashMap.newKeySet();
+                Scheduler.runClasses(classesToCompare, EarlyTermination.ENABLED, clazz -> {
+                    NWayComparison.NormalForms idbs = new NWayComparison.NormalForms(provider -> computeAndSerializeIDB(gav, provider, clazz, classes.get(provider).get(clazz).load()));
+                    try {
+                        for (NWayComparison.ProviderPair pair : work.pairs()) {
+                            String provider1 = pair.provider1();
+                            String provider2 = pair.provider2();
+                            Content clazz1 = classes.get(provider1).get(clazz);
+                            Content clazz2 = classes.get(provider2).get(clazz);
+                            if (clazz1 == null || clazz2 == null || skip(gav, provider1, provider2, clazz)) {
+                                continue;
+                            }
+                            if (EarlyTermination.isSettled(jarVerdictsByPair.get(pair))) {
+                                settledPairs.add(pair);
+                                EarlyTermination.skip(Math.max(classSizes.get(provider1).getOrDefault(clazz, 0L), classSizes.get(provider2).getOrDefault(clazz, 0L)));
+                                continue;
+                            }
+                            // if this fails, the pair of classes is recorded as dead letter and the run continues
+                            boolean compared = DeadLetters.isolate(VALIDATION_DB, gav, provider1, provider2, clazz, () -> {
+                                long start3 = System.nanoTime();
+                                ComparisonResult result = Arrays.equals(clazz1.load(), clazz2.load()) ? ComparisonResult.EQUAL : idbs.compare(provider1, provider2);
+                                if (result == ComparisonResult.TIMEOUT) {
+                                    RetryList.add(VALIDATION_DB, gav, provider1, provider2, clazz, "daleq");
+                                }
+                                StageTimer.stop(StageTimer.Stage.COMPARE_CLASSES,start3);
+                                classVerdicts.add(result);
+                                jarVerdictsByPair.merge(pair, result, VerdictCounter::worst);
+                                MANIFEST.addVerdict(gav, clazz, provider1, provider2, "daleq", result, null);
+                            });
+                            if (!compared) {
+                                failedPairs.add(pair);
+                                continue;
+                            }
+                            classesComparedCounter.incrementAndGet();
+                        }
+                        LOG.debug("IDB equivalence classes for {} in {}: {}", clazz, gav, idbs.getEquivalenceClasses().values());
+                    }
+                    finally {
+                        // bytecode is only retained while classes are compared
+                        classes.values().stream().map(c -> c.get(clazz)).filter(Objects::nonNull).forEach(Content::release);
+                    }
+                });
+
+                // jars settled early are only known to be at least NON_EQUIVALENT, and are reported separately
+                jarVerdictsByPair.forEach((pair, jarVerdict) -> {
+                    if (!settledPairs.contains(pair)) {
+                        jarVerdicts.add(jarVerdict);
+                    }
+                });
+                settledPairs.forEach(pair -> EarlyTermination.settled());
+                if (RETRY_LIST == null && SAMPLE == null && DEAD_LETTERS == null) {
+                    for (NWayComparison.ProviderPair pair : work.pairs()) {
+                        if (!settledPairs.contains(pair) && !failedPairs.contains(pair)) {
+                            addJars(MANIFEST, work, pair, classes);
+                        }
+                    }
+                }
+            });
         }
-        return resultsByJar.values().stream().collect(Collectors.toList());
+        finally {
+            gavWork.jars().forEach(cache::release);
+        }
+    }
+
+    // record that all classes of a pair of jars have been compared, used for incremental evaluation
+    static void addJars(Manifest manifest, NWayComparison.GAVWork work, NWayComparison.ProviderPair pair, Map<String,Map<String,Content>> classes) throws Exception {
+        Record record1 = work.records().get(pair.provider1());
+        Record record2 = work.records().get(pair.provider2());
+        int commonClasses = Sets.intersection(classes.get(pair.provider1()).keySet(), classes.get(pair.provider2()).keySet()).size();
+        manifest.addJars(work.gav(), pair.provider1(), pair.provider2(), record1.binMainMD5(), record2.binMainMD5(), commonClasses, IDBCache.getFingerprint());
     }
 
     private static ResultRecord compare(String gav, String provider1, String provider2, String commonClass, byte[] bytecode1, byte[] bytecode2) throws Exception {
@@ -236,6 +518,10 @@ public class RunEvaluation {
                 return new ResultRecord(gav, provider1, provider2, commonClass, ComparisonResult.NON_EQUIVALENT);
             }
         }
+        catch (TimeoutException e) {
+            RetryList.add(VALIDATION_DB, gav, provider1, provider2, commonClass, "daleq");
+            return new ResultRecord(gav, provider1, provider2, commonClass, ComparisonResult.TIMEOUT);
+        }
         catch (Exception e) {
             return new ResultRecord(gav, provider1, provider2, commonClass, ComparisonResult.ERROR);
         }
@@ -252,85 +538,7 @@ public class RunEvaluation {
         root = root.resolve(nClassName);
         root = root.resolve(provider);
 
-        Path edbRoot = root.resolve("edb");
-        Path edbFactDir = edbRoot.resolve( "facts");
-        Path edbDef = edbRoot.resolve("db.souffle");
-        Path idbRoot = root.resolve("idb");
-        Path idbFactDir = idbRoot.resolve( "facts");
-        Path mergedEDBAndRules = root.resolve("mergedEDBAndRules.souffle");
-        Path idbPrintout = root.resolve("idb-full.txt");
-        Path idbProjectedPrintout = root.resolve("idb-projected.txt");
-
-        if (Files.exists(idbProjectedPrintout)) {
-            LOG.info("Using already computed IDB (projected printout) {}", idbProjectedPrintout);
-            String report = Files.readAllLines(idbProjectedPrintout).stream().collect(Collectors.joining(System.lineSeparator()));
-            return report;
-        }
-        else {
-
-            long time = System.currentTimeMillis();
-            Files.createDirectories(edbFactDir);
-
-            // copy bytecode to file as fact extraction used files as input
-            Path classFile = root.resolve(className.substring(className.lastIndexOf("/") + 1));
-            Files.write(classFile, bytecode);
-
-            // build EDB
-            if (Files.exists(edbDef)) {
-                IOUtil.deleteDir(edbFactDir);
-            }
-            else {
-                Files.createDirectories(edbFactDir);
-            }
-
-            try {
-                FactExtractor.extractAndExport(classFile, edbDef, edbFactDir, true);
-                LOG.info("EBD extracted for {} in {} provided by {} in dir {}", nClassName, gav, provider, edbRoot);
-
-                if (Files.exists(idbFactDir)) {
-                    IOUtil.deleteDir(idbFactDir);
-                } else {
-                    Files.createDirectories(idbFactDir);
-                }
-
-                Souffle.createIDB(edbDef, Rules.defaultRules(), edbFactDir, idbFactDir, mergedEDBAndRules);
-                LOG.info("IBD computed for {} in {} provided by {} in dir {}", nClassName, gav, provider, idbFactDir);
-
-                // there might be a race condition is souffle that some background thread is still writing the IDB when createIDB returns
-                // there have been cased when facts where missing, leading to NPEs when printing the IDB
-                // but upon inspection, those facts where there
-                // try to mitigate with this for now
-                Thread.sleep(500);
-
-                // load IDB
-                IDB idb = IDBReader.read(idbFactDir);
-
-                String idbOut = IDBPrinter.print(idb);
-                String idbProjectedOut = IDBPrinter.print(idb.project());
-
-                Files.write(idbPrintout, idbOut.getBytes());
-                Files.write(idbProjectedPrintout, idbProjectedOut.getBytes());
-
-                // cleanup !
-                cleanupDBDir(edbRoot, RETENTION_POLICY);
-                cleanupDBDir(idbRoot, RETENTION_POLICY);
-                cleanupFile(mergedEDBAndRules, RETENTION_POLICY);
-                cleanupFile(idbPrintout, RETENTION_POLICY);
-
-                long duration = System.currentTimeMillis() - time;
-                Path timeTaken = root.resolve("computation-time-in-ms.txt");
-                Files.write(timeTaken, String.valueOf(duration).getBytes());
-
-                return idbProjectedOut;
-            }
-            catch (Exception e) {
-                Path errorLog = root.resolve("error.txt");
-                try (PrintWriter out = new PrintWriter(errorLog.toFile())) {
-                    e.printStackTrace(out);
-                }
-                throw e;
-            }
-        }
+        return IDBCache.computeAndSerializeIDB(gav, provider, className, bytecode, root, RETENTION_POLICY, MANIFEST);
     }
 
     static void cleanupDBDir(Path dir, DB_RETENTION_POLICY retentionPolicy) throws IOException {
@@ -364,23 +572,16 @@ public class RunEvaluation {
     }
 
 
-    // load the classes from a jar
-    static Map<String,Content> loadClasses(Map<Path, Map<String, Content>> cache, Path jar) throws IOException {
-
-        if (cache.containsKey(jar)) {
-            return cache.get(jar);
-        }
-        else {
-            LOG.debug("Loading classes from " + jar);
-            Map<String, Content> classes = new HashMap<>();
-            Set<String> entries = entries(jar.toFile(), f -> f.endsWith(".class"));
-            for (String entry : entries) {
-                Content content = new Content(jar, entry);
-                classes.put(entry, content);
-            }
-            cache.put(jar,classes);
-            return classes;
+    // load the classes from a jar, see JarCache for caching
+    static Map<String,Content> loadClasses(Path jar) throws IOException {
+        LOG.debug("Loading classes from " + jar);
+        Map<String, Content> classes = new HashMap<>();
+        Set<String> entries = entries(jar.toFile(), f -> f.endsWith(".class"));
+        for (String entry : entries) {
+            Content content = new Content(jar, entry);
+            classes.put(entry, content);
         }
+        return classes;
     }
 
     /**
@@ -443,42 +644,9 @@ public class RunEvaluation {
     }
 
 
-    static Map<String,Map<String,Set<String>>>  loadSameSourcesCache() {
-        Preconditions.checkArgument(Files.exists(SAME_SOURCE_CACHE));
-        try (FileReader reader = new FileReader(SAME_SOURCE_CACHE.toFile())) {
-            Map<String,Map<String,Set<String>>>  table = new Gson().fromJson(reader,HashMap.class);
-            LOG.info("Same source cache loaded");
-            return table;
-        } catch (FileNotFoundException x) {
-            LOG.info("Same source cache " + SAME_SOURCE_CACHE + " does not exist or is not accessible, using empty table");
-            return new HashMap<>();
-        } catch (IOException x) {
-            LOG.error("Error loading same same source cache, using empty table",x);
-            return new HashMap<>();
-        }
-    }
-
     static Set<String> readFromSameSourcesCache(String provider1, String provider2) {
-        Set<String> gavs = null;
-        Collection<String> gavs2 = null;
-        Map<String,Set<String>> map = GAVS_WITH_SAME_RESOURCES.get(provider1);
-        if (map!=null) {
-            gavs2  = map.get(provider2); // imported as ArrayList
-            if (gavs2!=null) {
-                gavs = gavs2.stream().collect(Collectors.toSet());
-            }
-        }
-        // entries are symmetric !
-        if (gavs==null) {
-            map = GAVS_WITH_SAME_RESOURCES.get(provider2);
-            if (map!=null) {
-                gavs2  = map.get(provider1);
-                if (gavs2!=null) {
-                    gavs = gavs2.stream().collect(Collectors.toSet());
-                }
-            }
-        }
-
+        // entries are symmetric, this is handled by the index
+        Set<String> gavs = GAVS_WITH_SAME_RESOURCES.getGAVs(provider1,provider2);
         if (gavs!=null) {
             LOG.info("Same source cache with GAVs used for " + provider1 + " and " + provider2 + " - " + gavs.size() + " gavs");
         }
@@ -492,16 +660,7 @@ public class RunEvaluation {
     }
 
     static Set<Record> parseRecords(Path indexFile) throws IOException {
-        return Files.lines(indexFile)
-            .map(line -> {
-                try {
-                    return Record.parse(indexFile.getParent(),line);
-                } catch (MalformedURLException e) {
-                    LOG.error("Error parsing " + indexFile + " ,  line: " + line);
-                    throw new RuntimeException(e);
-                }
-            })
-            .collect(Collectors.toUnmodifiableSet());
+        return DatasetIndex.load(indexFile);
     }
 
     /**
@@ -0,0 +1,93 @@
+package io.github.bineq.daleq.evaluation;
+
+import com.google.gson.stream.JsonReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of GAVs for which pairs of providers have jars built from the same sources.
+ * Backed by a json file with the structure {provider1: {provider2: [gav1, gav2, ..]}} , entries are symmetric.
+ * The file is read lazily with a streaming parser, and only the entries for pairs of providers that are queried are loaded.
+ * @author jens dietrich
+ */
+public class SameSourcesIndex {
+
+    final static Logger LOG = LoggerFactory.getLogger(SameSourcesIndex.class);
+
+    private final Path file;
+    // keys are normalised pairs of providers, empty values if there is no entry for a pair
+    private final Map<String,Optional<Set<String>>> gavsByProviders = new ConcurrentHashMap<>();
+
+    public SameSourcesIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Get the GAVs for which both providers have the same sources.
+     * @param provider1 a provider
+     * @param provider2 another provider
+     * @return an unmodifiable set of GAVs, or null if there is no entry for this pair of providers
+     */
+    public Set<String> getGAVs(String provider1, String provider2) {
+        return gavsByProviders.computeIfAbsent(key(provider1, provider2), k -> load(provider1, provider2)).orElse(null);
+    }
+
+    public boolean contains(String provider1, String provider2, String gav) {
+        Set<String> gavs = getGAVs(provider1, provider2);
+        return gavs != null && gavs.contains(gav);
+    }
+
+    // entries are symmetric
+    private static String key(String provider1, String provider2) {
+        return provider1.compareTo(provider2) < 0 ? provider1 + '\t' + provider2 : provider2 + '\t' + provider1;
+    }
+
+    private Optional<Set<String>> load(String provider1, String provider2) {
+        if (!Files.exists(file)) {
+            LOG.info("Same source cache " + file + " does not exist or is not accessible, using empty table");
+            return Optional.empty();
+        }
+        Set<String> gavs = null;
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String p1 = reader.nextName();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String p2 = reader.nextName();
+                    if ((p1.equals(provider1) && p2.equals(provider2)) || (p1.equals(provider2) && p2.equals(provider1))) {
+                        if (gavs == null) {
+                            gavs = new HashSet<>();
+                        }
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            gavs.add(reader.nextString().intern());
+                        }
+                        reader.endArray();
+                    }
+                    else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        }
+        catch (IOException x) {
+            LOG.error("Error loading same source cache, using empty table", x);
+            return Optional.empty();
+        }
+        LOG.info("Same source cache loaded for {} and {}", provider1, provider2);
+        return Optional.ofNullable(gavs).map(Collections::unmodifiableSet);
+    }
+}
@@ -0,0 +1,308 @@
+package io.github.bineq.daleq.evaluation;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Sampling mode, enabled by setting a budget (number of pairs of classes) with -DSAMPLE=<n> .
+ * The population consists of the common classes of all pairs of jars selected by the runners (same GAV, same sources, RunEvaluation::select).
+ * It is stratified by pair of providers, GA and class size, and a stratified random sample is drawn, using proportional allocation
+ * with at least one pair of classes per stratum. If there are more strata than the budget allows, GAs are not used for stratification.
+ * Only the classes sampled are compared, using the normal oracles. When the run is finished, the proportions of each ComparisonResult
+ * are estimated from the verdicts recorded in the manifest by this run, with 95% confidence intervals (Wilson intervals, using the effective sample size of the stratified design).
+ * Class names and sizes are read from the central directories of jars, no entries are inflated to draw the sample.
+ * The random seed can be set with -DSAMPLE_SEED=<seed> (default: 42), so that samples are reproducible.
+ * @author jens dietrich
+ */
+public class Sampling {
+
+    final static Logger LOG = LoggerFactory.getLogger(Sampling.class);
+
+    public static final String SAMPLE = "SAMPLE";
+    public static final String SAMPLE_SEED = "SAMPLE_SEED";
+    public static final String SAMPLE_FILE_NAME = "sample.tsv";
+    public static final String ESTIMATES_FILE_NAME = "sample-estimates.tsv";
+
+    static final int BUDGET = Integer.getInteger(SAMPLE, 0);
+    static final long SEED = Long.getLong(SAMPLE_SEED, 42);
+
+    // upper bounds of size buckets (uncompressed class size in bytes), the last bucket is unbounded
+    static final long[] SIZE_BUCKETS = {1_024, 4_096, 16_384};
+
+    static final double Z = 1.96;
+
+    /**
+     * A pair of classes in the population.
+     */
+    record Unit(String gav, String provider1, String provider2, String clazz, String stratum) {
+        String key() {
+            return Manifest.key(gav, clazz, provider1, provider2);
+        }
+    }
+
+    /**
+     * The proportion of a result, with a confidence interval.
+     */
+    record Estimate(String tool, ComparisonResult result, double proportion, double lower, double upper) {}
+
+    private final Map<String,Integer> populationSizes;
+    private final Map<String,List<Unit>> sample;
+    private final Set<String> classKeys = new HashSet<>();
+    private final Set<String> jarKeys = new HashSet<>();
+    // sampled pairs of classes found to be byte-identical by runners that do not record verdicts for those
+    private final Set<String> equalKeys = ConcurrentHashMap.newKeySet();
+
+    private Sampling(Map<String,Integer> populationSizes, Map<String,List<Unit>> sample) {
+        this.populationSizes = populationSizes;
+        this.sample = sample;
+        sample.values().stream().flatMap(List::stream).forEach(unit -> {
+            classKeys.add(unit.key());
+            jarKeys.add(Manifest.key(unit.gav(), unit.provider1(), unit.provider2()));
+        });
+    }
+
+    static boolean isEnabled() {
+        return BUDGET > 0;
+    }
+
+    /**
+     * Draw a sample if -DSAMPLE is set, the sample is also written to the output folder.
+     * @param root the output folder
+     * @param providers the providers
+     * @param setsOfRecords the records for each provider
+     * @param sourceEquivalenceMode the source equivalence mode
+     * @return the sample, or null if sampling is not enabled
+     */
+    static Sampling drawIfEnabled(Path root, List<String> providers, List<Set<Record>> setsOfRecords, int sourceEquivalenceMode) throws IOException {
+        if (!isEnabled()) {
+            return null;
+        }
+        List<Unit> population = new ArrayList<>();
+        for (int i = 0; i < providers.size(); i++) {
+            String provider1 = providers.get(i);
+            for (int j = 0; j < i; j++) {
+                String provider2 = providers.get(j);
+                Set<PairOfRecords> pairsOfRecords = RunEvaluation.findMatchingRecordsWithSameSources(provider1, provider2, setsOfRecords.get(i), setsOfRecords.get(j), sourceEquivalenceMode);
+                for (PairOfRecords pairOfRecords : pairsOfRecords) {
+                    Map<String,Long> sizes1 = Scheduler.classSizes(pairOfRecords.left().binMainFile());
+                    Map<String,Long> sizes2 = Scheduler.classSizes(pairOfRecords.right().binMainFile());
+                    String ga = pairOfRecords.left().groupId() + ":" + pairOfRecords.left().artifactId();
+                    for (Map.Entry<String,Long> entry : sizes1.entrySet()) {
+                        Long size2 = sizes2.get(entry.getKey());
+                        if (size2 != null) {
+                            String stratum = String.join("\t", provider1, provider2, ga, String.valueOf(sizeBucket(Math.max(entry.getValue(), size2))));
+                            population.add(new Unit(pairOfRecords.left().gav(), provider1, provider2, entry.getKey(), stratum));
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<String,List<Unit>> strata = stratify(population, BUDGET);
+        Map<String,Integer> allocation = allocate(strata, BUDGET);
+        Random random = new Random(SEED);
+        Map<String,Integer> populationSizes = new TreeMap<>();
+        Map<String,List<Unit>> sample = new TreeMap<>();
+        for (Map.Entry<String,List<Unit>> entry : strata.entrySet()) {
+            // sorted first, so that samples only depend on the seed
+            List<Unit> units = new ArrayList<>(entry.getValue());
+            units.sort(Comparator.comparing(Unit::key));
+            Collections.shuffle(units, random);
+            populationSizes.put(entry.getKey(), units.size());
+            sample.put(entry.getKey(), List.copyOf(units.subList(0, allocation.get(entry.getKey()))));
+        }
+
+        Sampling sampling = new Sampling(populationSizes, sample);
+        LOG.info("Sampled {} of {} pairs of classes in {} strata", sampling.classKeys.size(), population.size(), strata.size());
+        List<String> lines = new ArrayList<>();
+        sample.forEach((stratum, units) -> units.forEach(unit -> lines.add(String.join("\t", unit.gav(), unit.provider1(), unit.provider2(), unit.clazz(), stratum.replace('\t', '|')))));
+        Files.write(root.resolve(SAMPLE_FILE_NAME), lines);
+        return sampling;
+    }
+
+    // strata by pair of providers, GA and class size, GAs are not used if there are more strata than the budget
+    static Map<String,List<Unit>> stratify(List<Unit> population, int budget) {
+        Map<String,List<Unit>> strata = stratify(population, unit -> unit.stratum());
+        if (strata.size() > budget) {
+            LOG.info("{} strata exceed sampling budget {}, GAs are not used for stratification", strata.size(), budget);
+            strata = stratify(population, unit -> withoutGA(unit.stratum()));
+        }
+        Preconditions.checkState(strata.size() <= budget, "sampling budget too small, at least one pair of classes is needed for each of the " + strata.size() + " strata (pair of providers and class size)");
+        return strata;
+    }
+
+    private static Map<String,List<Unit>> stratify(List<Unit> population, Function<Unit,String> stratum) {
+        return population.stream().collect(Collectors.groupingBy(stratum, TreeMap::new, Collectors.toList()));
+    }
+
+    private static String withoutGA(String stratum) {
+        String[] tokens = stratum.split("\t");
+        return String.join("\t", tokens[0], tokens[1], tokens[3]);
+    }
+
+    static int sizeBucket(long size) {
+        for (int i = 0; i < SIZE_BUCKETS.length; i++) {
+            if (size < SIZE_BUCKETS[i]) {
+                return i;
+            }
+        }
+        return SIZE_BUCKETS.length;
+    }
+
+    // proportional allocation with at least one unit per stratum, remainders go to the strata with the largest fractional parts
+    static Map<String,Integer> allocate(Map<String,List<Unit>> strata, int budget) {
+        int total = strata.values().stream().mapToInt(List::size).sum();
+        Map<String,Integer> allocation = new HashMap<>();
+        Map<String,Double> remainders = new HashMap<>();
+        int allocated = 0;
+        int rest = budget - strata.size();
+        for (Map.Entry<String,List<Unit>> entry : strata.entrySet()) {
+            int size = entry.getValue().size();
+            double share = total == 0 ? 0 : (double) rest * size / total;
+            int n = Math.min(size, 1 + (int) share);
+            allocation.put(entry.getKey(), n);
+            remainders.put(entry.getKey(), share - Math.floor(share));
+            allocated = allocated + n;
+        }
+        List<String> byRemainder = strata.keySet().stream()
+            .sorted(Comparator.comparing((String stratum) -> remainders.get(stratum)).reversed().thenComparing(stratum -> stratum))
+            .collect(Collectors.toList());
+        for (String stratum : byRemainder) {
+            if (allocated >= budget) {
+                break;
+            }
+            if (allocation.get(stratum) < strata.get(stratum).size()) {
+                allocation.merge(stratum, 1, Integer::sum);
+                allocated = allocated + 1;
+            }
+        }
+        return allocation;
+    }
+
+    boolean contains(String gav, String provider1, String provider2) {
+        return jarKeys.contains(Manifest.key(gav, provider1, provider2));
+    }
+
+    boolean contains(String gav, String provider1, String provider2, String clazz) {
+        return classKeys.contains(Manifest.key(gav, clazz, provider1, provider2));
+    }
+
+    /**
+     * Record that a sampled pair of classes is byte-identical, for runners that do not record verdicts for such classes (RunComparativeEvaluation).
+     */
+    void addEqual(String gav, String provider1, String provider2, String clazz) {
+        equalKeys.add(Manifest.key(gav, clazz, provider1, provider2));
+    }
+
+    /**
+     * Estimate the proportions of results for the population from the verdicts for the sample recorded in the manifest by this run.
+     * Sampled pairs of classes without a verdict are counted as EQUAL if they have been recorded as byte-identical (see addEqual).
+     * Other pairs of classes without a verdict have not been evaluated (they have failed, see DeadLetters, or have been skipped, see EarlyTermination),
+     * they are reported separately and excluded from the estimates.
+     * Estimates are logged and written to the output folder.
+     * @param root the output folder
+     * @param tools the tools for which verdicts are recorded
+     * @param run the run of this runner, see Manifest::getRun , verdicts recorded by other runs are ignored
+     */
+    List<Estimate> report(Path root, List<String> tools, String run) throws IOException {
+        List<Manifest.Verdict> verdicts = Manifest.readVerdicts(root);
+        List<Manifest.Verdict> verdictsOfRun = verdicts == null ? List.of() : verdicts.stream().filter(verdict -> run.equals(verdict.run())).toList();
+        List<Estimate> estimates = new ArrayList<>();
+        for (String tool : tools) {
+            Map<String,Manifest.Verdict> verdictsForTool = Manifest.indexVerdicts(verdictsOfRun, tool);
+            // results by stratum, null if not evaluated
+            Map<String,List<ComparisonResult>> results = new TreeMap<>();
+            int notEvaluated = 0;
+            for (Map.Entry<String,List<Unit>> entry : sample.entrySet()) {
+                List<ComparisonResult> resultsForStratum = new ArrayList<>();
+                for (Unit unit : entry.getValue()) {
+                    Manifest.Verdict verdict = verdictsForTool.get(unit.key());
+                    ComparisonResult result = verdict != null ? verdict.result() : (equalKeys.contains(unit.key()) ? ComparisonResult.EQUAL : null);
+                    if (result == null) {
+                        notEvaluated = notEvaluated + 1;
+                    }
+                    resultsForStratum.add(result);
+                }
+                results.put(entry.getKey(), resultsForStratum);
+            }
+            if (notEvaluated > 0) {
+                LOG.warn("sampled {} - {} of {} pairs of classes have not been evaluated (failed or skipped), and are excluded from the estimates", tool, notEvaluated, classKeys.size());
+            }
+            for (ComparisonResult result : ComparisonResult.values()) {
+                estimates.add(estimate(tool, result, populationSizes, results));
+            }
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add(String.join("\t", "tool", "result", "proportion", "lower", "upper"));
+        for (Estimate estimate : estimates) {
+            LOG.info("sampled {} - {}: {} (95% CI {} - {})", estimate.tool(), estimate.result(), percent(estimate.proportion()), percent(estimate.lower()), percent(estimate.upper()));
+            lines.add(String.join("\t", estimate.tool(), estimate.result().name(), String.valueOf(estimate.proportion()), String.valueOf(estimate.lower()), String.valueOf(estimate.upper())));
+        }
+        Files.write(root.resolve(ESTIMATES_FILE_NAME), lines);
+        LOG.info("estimates written to {}", root.resolve(ESTIMATES_FILE_NAME));
+        return estimates;
+    }
+
+    /**
+     * Stratified estimate of a proportion, the variance includes the finite population correction.
+     * Pairs of classes not evaluated (null results) are excluded, strata without any evaluated pair of classes are excluded from the population.
+     * @param populationSizes the population size by stratum
+     * @param results the results for the sample by stratum, null if not evaluated
+     */
+    static Estimate estimate(String tool, ComparisonResult result, Map<String,Integer> populationSizes, Map<String,List<ComparisonResult>> results) {
+        Map<String,List<ComparisonResult>> evaluated = new TreeMap<>();
+        results.forEach((stratum, resultsForStratum) -> {
+            List<ComparisonResult> evaluatedForStratum = resultsForStratum.stream().filter(Objects::nonNull).toList();
+            if (!evaluatedForStratum.isEmpty()) {
+                evaluated.put(stratum, evaluatedForStratum);
+            }
+        });
+        double total = evaluated.keySet().stream().mapToInt(populationSizes::get).sum();
+        if (total == 0) {
+            return new Estimate(tool, result, 0, 0, 1);
+        }
+        double proportion = 0;
+        double variance = 0;
+        int sampleSize = 0;
+        for (Map.Entry<String,List<ComparisonResult>> entry : evaluated.entrySet()) {
+            List<ComparisonResult> resultsForStratum = entry.getValue();
+            int n = resultsForStratum.size();
+            int N = populationSizes.get(entry.getKey());
+            double weight = N / total;
+            double p = (double) resultsForStratum.stream().filter(r -> r == result).count() / n;
+            proportion = proportion + weight * p;
+            if (n > 1) {
+                variance = variance + weight * weight * (1 - (double) n / N) * p * (1 - p) / (n - 1);
+            }
+            sampleSize = sampleSize + n;
+        }
+        // effective sample size (Kish), the sample size is used if the variance cannot be estimated
+        double effectiveSampleSize = variance > 0 ? proportion * (1 - proportion) / variance : sampleSize;
+        double[] interval = wilson(proportion, effectiveSampleSize);
+        return new Estimate(tool, result, proportion, interval[0], interval[1]);
+    }
+
+    static double[] wilson(double p, double n) {
+        if (n == 0) {
+            return new double[]{0, 1};
+        }
+        double z2 = Z * Z;
+        double centre = (p + z2 / (2 * n)) / (1 + z2 / n);
+        double halfWidth = Z * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n)) / (1 + z2 / n);
+        return new double[]{Math.max(0, centre - halfWidth), Math.min(1, centre + halfWidth)};
+    }
+
+    private static String percent(double value) {
+        return String.format("%.2f%%", 100 * value);
+    }
+}
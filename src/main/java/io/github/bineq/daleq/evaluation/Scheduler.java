@@ -0,0 +1,220 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Schedules the comparison of pairs of jars and classes so that the most expensive work is done first.
+ * This avoids long-running stragglers at the end of a run when work is done in parallel.
+ * The cost is estimated by the uncompressed size of the class files, read from the central directory of the jars
+ * (i.e. without inflating any entries).
+ * The number of threads used can be set with -DTHREADS=<n> , the default is 1 (serial processing).
+ * With -DVIRTUAL_THREADS=true (requires Java 21), pairs of jars and the classes within them are compared on virtual threads,
+ * the work done concurrently is then limited by the permits in Throttle rather than by the size of a thread pool,
+ * and the number of classes in flight (across all pairs of jars) can be set with -DCLASSES_IN_FLIGHT=<n> .
+ * @author jens dietrich
+ */
+public class Scheduler {
+
+    final static Logger LOG = LoggerFactory.getLogger(Scheduler.class);
+
+    public static final String THREADS = "THREADS";
+    static final int THREAD_COUNT = Integer.getInteger(THREADS, 1);
+
+    public static final String VIRTUAL_THREADS = "VIRTUAL_THREADS";
+    static final boolean USE_VIRTUAL_THREADS = Boolean.getBoolean(VIRTUAL_THREADS);
+
+    // shared by all pairs of jars, so that large jars do not start a virtual thread (holding class bytes) for each of their classes
+    public static final String CLASSES_IN_FLIGHT = "CLASSES_IN_FLIGHT";
+    static final Semaphore CLASS_PERMITS = new Semaphore(Math.max(1, Integer.getInteger(CLASSES_IN_FLIGHT, 2 * Runtime.getRuntime().availableProcessors())), true);
+
+    /**
+     * Get the uncompressed sizes of the class files in a jar.
+     * @param jar the jar
+     * @return a map associating class file names with their sizes in bytes (0 if unknown)
+     */
+    static Map<String,Long> classSizes(Path jar) throws IOException {
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            Map<String,Long> sizes = new HashMap<>();
+            Enumeration<? extends ZipEntry> iter = zip.entries();
+            while (iter.hasMoreElements()) {
+                ZipEntry entry = iter.nextElement();
+                if (entry.getName().endsWith(".class")) {
+                    sizes.put(entry.getName(), Math.max(0, entry.getSize()));
+                }
+            }
+            return sizes;
+        }
+        catch (Exception x) {
+            throw new IOException("Error reading from zip file " + jar, x);
+        }
+    }
+
+    /**
+     * Estimate the cost of comparing a pair of jars.
+     */
+    static long estimateCost(PairOfRecords pairOfRecords) {
+        try {
+            long size1 = classSizes(pairOfRecords.left().binMainFile()).values().stream().mapToLong(s -> s).sum();
+            long size2 = classSizes(pairOfRecords.right().binMainFile()).values().stream().mapToLong(s -> s).sum();
+            return size1 + size2;
+        } catch (IOException e) {
+            LOG.warn("Cannot estimate cost for " + pairOfRecords.left().gav(), e);
+            return 0;  // errors will be reported when classes are loaded
+        }
+    }
+
+    /**
+     * Order pairs of jars, most expensive first. Ties are broken by GAV to make the order deterministic.
+     */
+    static List<PairOfRecords> largestFirst(Collection<PairOfRecords> pairsOfRecords) {
+        Map<PairOfRecords,Long> costs = new HashMap<>();
+        pairsOfRecords.forEach(pairOfRecords -> costs.put(pairOfRecords, estimateCost(pairOfRecords)));
+        List<PairOfRecords> schedule = pairsOfRecords.stream()
+            .sorted(Comparator.comparing((PairOfRecords p) -> costs.get(p)).reversed().thenComparing(p -> p.left().gav()))
+            .collect(Collectors.toList());
+        LOG.info("Scheduled {} pairs of jars, estimated cost (class bytes) is {}", schedule.size(), costs.values().stream().mapToLong(c -> c).sum());
+        return schedule;
+    }
+
+    /**
+     * Order classes, most expensive first. Ties are broken by name to make the order deterministic.
+     */
+    static List<String> largestFirst(Collection<String> classes, Map<String,Long> sizes1, Map<String,Long> sizes2) {
+        return classes.stream()
+            .sorted(Comparator.comparing((String c) -> sizes1.getOrDefault(c, 0L) + sizes2.getOrDefault(c, 0L)).reversed().thenComparing(c -> c))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Process work items in the given order, using the number of threads set with -DTHREADS .
+     * Items are dispatched in order, so the first items start first.
+     * With -DVIRTUAL_THREADS=true , each item runs on its own virtual thread, and -DTHREADS limits the number of items in flight.
+     * If a task fails, the exception is rethrown (wrapped in a RuntimeException if necessary), and pending work is cancelled.
+     */
+    static <T> void run(List<T> work, Consumer<T> task) {
+        if (USE_VIRTUAL_THREADS) {
+            Semaphore permits = new Semaphore(Math.max(1, THREAD_COUNT), true);
+            invokeAll(newVirtualThreadPerTaskExecutor(), work, throttled(permits, task));
+        }
+        else if (THREAD_COUNT <= 1) {
+            work.forEach(task);
+        }
+        else {
+            invokeAll(Executors.newFixedThreadPool(THREAD_COUNT), work, task);
+        }
+    }
+
+    /**
+     * Process the classes of a pair of jars (or other fine-grained work).
+     * With -DVIRTUAL_THREADS=true , each item runs on its own virtual thread, -DCLASSES_IN_FLIGHT limits the number of items in flight,
+     * and concurrency is further limited by the permits in Throttle.
+     * Otherwise, items are processed serially by the calling thread.
+     */
+    static <T> void runClasses(List<T> work, Consumer<T> task) {
+        runClasses(work, false, task);
+    }
+
+    /**
+     * Process the classes of a pair of jars, like runClasses(work, task), but always serially and in order if inOrder is set,
+     * i.e. when whether later items are processed depends on the results for earlier items (see EarlyTermination).
+     */
+    static <T> void runClasses(List<T> work, boolean inOrder, Consumer<T> task) {
+        if (USE_VIRTUAL_THREADS && !inOrder) {
+            invokeAll(newVirtualThreadPerTaskExecutor(), work, throttled(CLASS_PERMITS, task));
+        }
+        else {
+            work.forEach(task);
+        }
+    }
+
+    private static <T> Consumer<T> throttled(Semaphore permits, Consumer<T> task) {
+        return item -> {
+            try {
+                Throttle.call(permits, () -> {
+                    task.accept(item);
+                    return null;
+                });
+            } catch (RuntimeException x) {
+                throw x;
+            } catch (Exception x) {
+                throw new RuntimeException(x);
+            }
+        };
+    }
+
+    // if a task fails or the calling thread is interrupted, pending tasks are cancelled (interrupted),
+    // Watchdog then kills the processes they have spawned, this returns (or rethrows) only once all tasks have stopped
+    private static <T> void invokeAll(ExecutorService executor, List<T> work, Consumer<T> task) {
+        try {
+            List<Future<?>> futures = new ArrayList<>(work.size());
+            for (T item : work) {
+                futures.add(executor.submit(() -> task.accept(item)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (ExecutionException x) {
+            if (x.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) x.getCause();
+            }
+            throw new RuntimeException(x.getCause());
+        }
+        catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(x);
+        }
+        finally {
+            executor.shutdownNow();
+            awaitTermination(executor);
+        }
+    }
+
+    // wait uninterruptibly, so that no cancelled task outlives the call, the interrupt status is restored
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                        return;
+                    }
+                    LOG.warn("Still waiting for cancelled tasks to stop");
+                }
+                catch (InterruptedException x) {
+                    interrupted = true;
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // looked up reflectively, so that the code still compiles and runs with Java 17 if virtual threads are not used
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException x) {
+            throw new IllegalStateException("-D" + VIRTUAL_THREADS + "=true requires a Java 21 runtime", x);
+        }
+    }
+}
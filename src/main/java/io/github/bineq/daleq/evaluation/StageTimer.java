@@ -0,0 +1,50 @@
+package io.github.bineq.daleq.evaluation;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates wall-clock time and invocation counts for the stages of the evaluation pipeline.
+ * Stages are timed by the runners, the benchmark driver reports the breakdown.
+ * Safe to use from multiple threads, times of concurrent invocations add up.
+ * @author jens dietrich
+ */
+public class StageTimer {
+
+    public enum Stage {PARSE_INDEX, MATCH_RECORDS, LOAD_CLASSES, COMPARE_CLASSES, EDB_EXTRACTION, SOUFFLE, IDB_PRINTING, JAVAP, JNORM}
+
+    private static final Map<Stage,LongAdder> NANOS = new EnumMap<>(Stage.class);
+    private static final Map<Stage,LongAdder> COUNTS = new EnumMap<>(Stage.class);
+    static {
+        for (Stage stage:Stage.values()) {
+            NANOS.put(stage,new LongAdder());
+            COUNTS.put(stage,new LongAdder());
+        }
+    }
+
+    /**
+     * Record an invocation of a stage that started at the given time.
+     * @param stage the stage
+     * @param startNanos the start time, obtained from System.nanoTime()
+     */
+    public static void stop(Stage stage, long startNanos) {
+        NANOS.get(stage).add(System.nanoTime() - startNanos);
+        COUNTS.get(stage).increment();
+    }
+
+    public static long getCount(Stage stage) {
+        return COUNTS.get(stage).sum();
+    }
+
+    public static long getTimeInMs(Stage stage) {
+        return NANOS.get(stage).sum() / 1_000_000;
+    }
+
+    public static void reset() {
+        for (Stage stage:Stage.values()) {
+            NANOS.get(stage).reset();
+            COUNTS.get(stage).reset();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.bineq.daleq.evaluation;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of CPU-bound tasks (fact extraction, IDB printing, javap) running at the same time.
+ * This matters when many comparisons are in flight (see Scheduler, -DVIRTUAL_THREADS).
+ * The limit can be set with -DCPU_PERMITS=<n> , the default is the number of available processors.
+ * External processes (souffle, jnorm) are limited by the ProcessGovernor.
+ * @author jens dietrich
+ */
+public class Throttle {
+
+    public static final String CPU_PERMITS = "CPU_PERMITS";
+
+    static final Semaphore CPU = new Semaphore(Integer.getInteger(CPU_PERMITS, Runtime.getRuntime().availableProcessors()), true);
+
+    /**
+     * Run a task holding a permit. Waiting for the permit can be interrupted (e.g. when a comparison is cancelled).
+     */
+    static <T> T call(Semaphore permits, Callable<T> task) throws Exception {
+        permits.acquire();
+        try {
+            return task.call();
+        }
+        finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.bineq.daleq.evaluation;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts comparison results as they arrive, so that statistics can be reported without keeping or scanning all results.
+ * Safe to use from multiple threads.
+ * @author jens dietrich
+ */
+public class VerdictCounter {
+
+    private final Map<ComparisonResult,LongAdder> counts = new EnumMap<>(ComparisonResult.class);
+
+    public VerdictCounter() {
+        // the map is not modified after this, only the adders are
+        for (ComparisonResult result : ComparisonResult.values()) {
+            counts.put(result, new LongAdder());
+        }
+    }
+
+    public void add(ComparisonResult result) {
+        counts.get(result).increment();
+    }
+
+    public long get(ComparisonResult result) {
+        return counts.get(result).sum();
+    }
+
+    public long total() {
+        return counts.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * Aggregate results, this is the result that comes last in the order of ComparisonResult.
+     * Can be used to compute the result for a jar from the results for its classes.
+     * @param result1 a result, or null
+     * @param result2 another result
+     * @return the worst of both results
+     */
+    public static ComparisonResult worst(ComparisonResult result1, ComparisonResult result2) {
+        if (result1 == null) {
+            return result2;
+        }
+        return result1.compareTo(result2) < 0 ? result2 : result1;
+    }
+}
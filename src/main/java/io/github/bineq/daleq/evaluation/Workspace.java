@@ -0,0 +1,122 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Scratch folders for intermediate files (EDB and IDB fact folders, merged souffle programs, copies of class files).
+ * If a scratch root is set with -DSCRATCH=<dir> (e.g. a folder in /dev/shm), intermediate files are created in a working folder there,
+ * and only the artifacts to be retained are moved to the output folder.
+ * Working folders are pooled, each task currently computing an IDB uses one, and they are wiped and reused when the task is done.
+ * Working folders are deleted when the JVM exits.
+ * @author jens dietrich
+ */
+public class Workspace {
+
+    final static Logger LOG = LoggerFactory.getLogger(Workspace.class);
+
+    public static final String SCRATCH = "SCRATCH";
+    static final Path SCRATCH_ROOT = System.getProperty(SCRATCH) == null ? null : Path.of(System.getProperty(SCRATCH));
+
+    private static final Queue<Path> pool = new ConcurrentLinkedQueue<>();
+    private static final List<Path> created = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger counter = new AtomicInteger(0);
+
+    static {
+        if (SCRATCH_ROOT != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                for (Path dir : created) {
+                    try {
+                        wipe(dir);
+                        Files.deleteIfExists(dir);
+                    } catch (IOException x) {
+                        // best effort
+                    }
+                }
+            }));
+        }
+    }
+
+    static boolean isEnabled() {
+        return SCRATCH_ROOT != null;
+    }
+
+    /**
+     * Get an empty working folder, must be released when it is not used anymore.
+     */
+    static Path acquire() throws IOException {
+        Path dir = pool.poll();
+        if (dir == null) {
+            // the pid is used to avoid clashes between runs using the same scratch root
+            dir = SCRATCH_ROOT.resolve("daleq-worker-" + ProcessHandle.current().pid() + "-" + counter.incrementAndGet());
+            Files.createDirectories(dir);
+            created.add(dir);
+            LOG.debug("Created working folder {}", dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Wipe a working folder and return it to the pool.
+     */
+    static void release(Path dir) {
+        try {
+            wipe(dir);
+            pool.add(dir);
+        }
+        catch (IOException x) {
+            LOG.warn("Cannot wipe working folder " + dir + " , it will not be reused", x);
+        }
+    }
+
+    private static void wipe(Path dir) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            files = walk.filter(file -> !file.equals(dir)).sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Move a file or folder from a working folder to the output folder, replacing existing files.
+     * Folders are copied, as they cannot be moved between file systems, the source is deleted when the working folder is wiped.
+     */
+    static void moveToStore(Path source, Path target) throws IOException {
+        if (Files.isDirectory(source)) {
+            if (Files.exists(target)) {
+                wipe(target);
+            }
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(source)) {
+                files = walk.sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                Path copy = target.resolve(source.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(copy);
+                }
+                else {
+                    Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+        else {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package io.github.bineq.daleq.evaluation.benchmark;
+
+import com.google.common.base.Preconditions;
+import com.google.gson.GsonBuilder;
+import io.github.bineq.daleq.IOUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates a synthetic alternative build dataset that can be used to benchmark the evaluation pipeline offline.
+ * For each provider, jars are compiled from the same generated sources, with the following controlled variations between providers:
+ * 1. some classes are compiled with the same flags for all providers (pairs of classes with the same bytecode)
+ * 2. some classes are compiled with or without debug information depending on the provider (usually equivalent)
+ * 3. some classes are compiled for different target releases depending on the provider (e.g. string concatenation differs, usually not equivalent)
+ * The dataset consists of one folder with jars and one index file gav_<provider>.tsv (in the format expected by Record::parse) per provider,
+ * and a same_sources.json file listing all GAVs as having the same sources.
+ * Usage: GenerateSyntheticDataset <output-folder> [number-of-GAs] [versions-per-GA] [classes-per-jar] [methods-per-class] [provider]*
+ * Note that RunEvaluation::select only picks the first and the last version of each GA.
+ * @author jens dietrich
+ */
+public class GenerateSyntheticDataset {
+
+    final static Logger LOG = LoggerFactory.getLogger(GenerateSyntheticDataset.class);
+
+    static final List<String> DEFAULT_PROVIDERS = List.of("mvnc","gaoss");
+    static final long SEED = 42;
+    static final double SAME_FLAGS_RATE = 0.2;
+    static final double DIFFERENT_RELEASE_RATE = 0.2;
+    static final String GROUP_ID = "org.example.synthetic";
+    static final long ENTRY_TIME = 1_700_000_000_000L; // fixed timestamp to make jars reproducible
+
+    enum Variation {SAME_FLAGS, DEBUG_INFO, RELEASE}
+
+    public static void main(String[] args) throws Exception {
+        Preconditions.checkArgument(args.length > 0, "at least the output folder is required");
+        Path root = Path.of(args[0]);
+        int gaCount = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int versionCount = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int classCount = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        int methodCount = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+        List<String> providers = args.length > 5 ? Stream.of(args).skip(5).collect(Collectors.toUnmodifiableList()) : DEFAULT_PROVIDERS;
+        Preconditions.checkArgument(gaCount > 0 && versionCount > 0 && classCount > 0 && methodCount > 0);
+        Preconditions.checkArgument(providers.size() > 1, "at least two providers are required");
+
+        Files.createDirectories(root);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Preconditions.checkState(compiler != null, "no system java compiler available, run this with a JDK");
+
+        Map<String,List<String>> lines = new LinkedHashMap<>();
+        providers.forEach(provider -> lines.put(provider, new ArrayList<>()));
+        List<String> gavs = new ArrayList<>();
+        Random random = new Random(SEED);
+
+        for (int ga = 0; ga < gaCount; ga++) {
+            String artifactId = "artifact" + ga;
+            for (int v = 0; v < versionCount; v++) {
+                String version = "1." + v + ".0";
+                String gav = GROUP_ID + ':' + artifactId + ':' + version;
+                gavs.add(gav);
+                LOG.info("generating {}", gav);
+
+                Path sources = Files.createTempDirectory("synthetic-sources");
+                Map<Variation,List<Path>> sourceFiles = generateSources(sources, artifactId, classCount, methodCount, random);
+
+                for (int p = 0; p < providers.size(); p++) {
+                    String provider = providers.get(p);
+                    Path dir = root.resolve(provider).resolve(GROUP_ID.replace('.','/')).resolve(artifactId).resolve(version);
+                    Files.createDirectories(dir);
+                    Path classes = Files.createTempDirectory("synthetic-classes");
+                    compile(compiler, sourceFiles.get(Variation.SAME_FLAGS), classes, "-g", "--release", "11");
+                    compile(compiler, sourceFiles.get(Variation.DEBUG_INFO), classes, p % 2 == 0 ? "-g" : "-g:none", "--release", "11");
+                    compile(compiler, sourceFiles.get(Variation.RELEASE), classes, "-g", "--release", p % 2 == 0 ? "11" : "8");
+
+                    Path binJar = dir.resolve(artifactId + '-' + version + ".jar");
+                    Path srcJar = dir.resolve(artifactId + '-' + version + "-sources.jar");
+                    jar(classes, binJar);
+                    jar(sources, srcJar);
+                    IOUtil.deleteDir(classes);
+
+                    lines.get(provider).add(toIndexLine(root, artifactId, version, binJar, srcJar));
+                }
+                IOUtil.deleteDir(sources);
+            }
+        }
+
+        for (String provider : providers) {
+            Path index = root.resolve("gav_" + provider + ".tsv");
+            Files.write(index, lines.get(provider));
+            LOG.info("index written to {}", index);
+        }
+
+        // all GAVs have the same sources for all pairs of providers, see RunEvaluation::readFromSameSourcesCache for the format
+        Map<String,Map<String,List<String>>> sameSources = new LinkedHashMap<>();
+        for (int i = 0; i < providers.size(); i++) {
+            for (int j = 0; j < i; j++) {
+                sameSources.computeIfAbsent(providers.get(i), k -> new LinkedHashMap<>()).put(providers.get(j), gavs);
+            }
+        }
+        Path sameSourcesFile = root.resolve("same_sources.json");
+        try (Writer out = Files.newBufferedWriter(sameSourcesFile)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(sameSources, out);
+        }
+        LOG.info("same sources written to {}", sameSourcesFile);
+        LOG.info("generated {} GAVs with {} classes each for providers {}", gavs.size(), classCount, providers);
+    }
+
+    private static Map<Variation,List<Path>> generateSources(Path root, String artifactId, int classCount, int methodCount, Random random) throws IOException {
+        Map<Variation,List<Path>> sourceFiles = new EnumMap<>(Variation.class);
+        for (Variation variation : Variation.values()) {
+            sourceFiles.put(variation, new ArrayList<>());
+        }
+        String packageName = GROUP_ID + '.' + artifactId;
+        Path dir = root.resolve(packageName.replace('.','/'));
+        Files.createDirectories(dir);
+        for (int c = 0; c < classCount; c++) {
+            String className = "Class" + c;
+            Path file = dir.resolve(className + ".java");
+            Files.writeString(file, generateClass(packageName, className, methodCount, random));
+            double d = random.nextDouble();
+            Variation variation = d < SAME_FLAGS_RATE ? Variation.SAME_FLAGS : d < SAME_FLAGS_RATE + DIFFERENT_RELEASE_RATE ? Variation.RELEASE : Variation.DEBUG_INFO;
+            sourceFiles.get(variation).add(file);
+        }
+        return sourceFiles;
+    }
+
+    // the methods use string concatenation, casts, constants, fields and inner classes -- i.e. features where compilers differ
+    private static String generateClass(String packageName, String className, int methodCount, Random random) {
+        StringBuilder b = new StringBuilder();
+        b.append("package ").append(packageName).append(";\n\n");
+        b.append("public class ").append(className).append(" {\n\n");
+        b.append("    private int counter = ").append(random.nextInt(100)).append(";\n");
+        b.append("    private final java.util.List<Object> values = new java.util.ArrayList<>();\n\n");
+        for (int m = 0; m < methodCount; m++) {
+            b.append("    public String method").append(m).append("(Object o, int i) {\n");
+            b.append("        counter = counter + i * ").append(random.nextInt(1000)).append(";\n");
+            b.append("        values.add(o);\n");
+            b.append("        if (o instanceof String) {\n");
+            b.append("            String s = (String) o;\n");
+            b.append("            return \"").append(className).append('.').append(m).append(": \" + s + counter;\n");
+            b.append("        }\n");
+            b.append("        Runnable r = new Runnable() { public void run() { counter++; } };\n");
+            b.append("        r.run();\n");
+            b.append("        return String.valueOf(values.size() + ").append(random.nextInt(50)).append(");\n");
+            b.append("    }\n\n");
+        }
+        b.append("}\n");
+        return b.toString();
+    }
+
+    private static void compile(JavaCompiler compiler, List<Path> sourceFiles, Path outputDir, String... options) throws IOException {
+        if (sourceFiles.isEmpty()) {
+            return;
+        }
+        List<String> args = new ArrayList<>(List.of(options));
+        args.add("-nowarn");
+        args.add("-Xlint:-options");
+        args.add("-d");
+        args.add(outputDir.toString());
+        sourceFiles.forEach(f -> args.add(f.toString()));
+        int status = compiler.run(null, null, null, args.toArray(new String[0]));
+        if (status != 0) {
+            throw new IOException("Error compiling synthetic sources, javac " + String.join(" ", args));
+        }
+    }
+
+    private static void jar(Path dir, Path jar) throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (Path file : files) {
+                JarEntry entry = new JarEntry(dir.relativize(file).toString().replace('\\','/'));
+                entry.setTime(ENTRY_TIME);
+                out.putNextEntry(entry);
+                Files.copy(file, out);
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static String toIndexLine(Path root, String artifactId, String version, Path binJar, Path srcJar) throws IOException {
+        String url = "https://repo.example.org/" + GROUP_ID.replace('.','/') + '/' + artifactId + '/' + version + '/';
+        String binUrl = url + binJar.getFileName();
+        String srcUrl = url + srcJar.getFileName();
+        return String.join("\t",
+            GROUP_ID, artifactId, version, version,
+            root.relativize(binJar).toString(), binUrl, md5(binJar), binUrl + ".md5",
+            root.relativize(srcJar).toString(), srcUrl, md5(srcJar), srcUrl + ".md5"
+        );
+    }
+
+    private static String md5(Path file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return HexFormat.of().formatHex(digest.digest(Files.readAllBytes(file)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
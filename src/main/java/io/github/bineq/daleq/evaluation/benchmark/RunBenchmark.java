@@ -0,0 +1,90 @@
+package io.github.bineq.daleq.evaluation.benchmark;
+
+import com.google.common.base.Preconditions;
+import io.github.bineq.daleq.IOUtil;
+import io.github.bineq.daleq.evaluation.RunComparativeEvaluation;
+import io.github.bineq.daleq.evaluation.RunEvaluation;
+import io.github.bineq.daleq.evaluation.StageTimer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end throughput benchmark, runs RunEvaluation or RunComparativeEvaluation over a (synthetic) dataset
+ * and reports classes / second and a per-stage breakdown.
+ * Usage: RunBenchmark <evaluation|comparative> <dataset-folder> <output-folder>
+ * The dataset folder is expected to contain the gav_*.tsv index files, and a same_sources.json file (unless set using -DSAME_SOURCES),
+ * such as the datasets created by GenerateSyntheticDataset.
+ * The output folder is deleted before the run to make sure that no previously computed IDBs are reused.
+ * @author jens dietrich
+ */
+public class RunBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Preconditions.checkArgument(args.length == 3, "three arguments required: evaluation|comparative, the dataset folder and the output folder");
+        String runner = args[0];
+        Preconditions.checkArgument(runner.equals("evaluation") || runner.equals("comparative"), "first argument must be evaluation or comparative");
+        Path dataset = Path.of(args[1]);
+        Preconditions.checkArgument(Files.isDirectory(dataset), "dataset folder does not exist: " + dataset);
+        Path output = Path.of(args[2]);
+
+        List<Path> indexFiles;
+        try (Stream<Path> files = Files.list(dataset)) {
+            indexFiles = files
+                .filter(f -> f.getFileName().toString().startsWith("gav_") && f.getFileName().toString().endsWith(".tsv"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+        Preconditions.checkState(indexFiles.size() > 1, "at least two index files gav_*.tsv required in " + dataset);
+
+        // must be set before the runners are initialised
+        if (System.getProperty(RunEvaluation.SAME_SOURCES) == null) {
+            Path sameSources = dataset.resolve("same_sources.json");
+            Preconditions.checkState(Files.exists(sameSources), "same sources file not found: " + sameSources);
+            System.setProperty(RunEvaluation.SAME_SOURCES, sameSources.toString());
+        }
+
+        if (Files.exists(output)) {
+            IOUtil.deleteDir(output);
+        }
+
+        List<String> runnerArgs = new ArrayList<>();
+        runnerArgs.add(output.toString());
+        indexFiles.forEach(f -> runnerArgs.add(f.toString()));
+
+        StageTimer.reset();
+        long start = System.currentTimeMillis();
+        if (runner.equals("evaluation")) {
+            RunEvaluation.main(runnerArgs.toArray(new String[0]));
+        }
+        else {
+            RunComparativeEvaluation.main(runnerArgs.toArray(new String[0]));
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        long classes = StageTimer.getCount(StageTimer.Stage.COMPARE_CLASSES);
+        System.out.println("runner: " + runner);
+        System.out.println("dataset: " + dataset + " (" + indexFiles.size() + " providers)");
+        System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("total time (ms): " + duration);
+        System.out.println("pairs of classes compared: " + classes);
+        System.out.println("classes / sec: " + String.format("%.2f", duration == 0 ? 0 : (1000.0 * classes) / duration));
+        System.out.println();
+        System.out.println("stage\tinvocations\ttime (ms)\tmean (ms)\tshare of total time");
+        for (StageTimer.Stage stage : StageTimer.Stage.values()) {
+            long count = StageTimer.getCount(stage);
+            long time = StageTimer.getTimeInMs(stage);
+            System.out.println(String.join("\t",
+                stage.name(),
+                String.valueOf(count),
+                String.valueOf(time),
+                String.format("%.2f", count == 0 ? 0 : ((double) time) / count),
+                String.format("%.2f%%", duration == 0 ? 0 : (100.0 * time) / duration)
+            ));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package io.github.bineq.daleq.evaluation.resultanalysis;
 
 import com.google.common.base.Preconditions;
+import io.github.bineq.daleq.evaluation.CheckEvaluationResults;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,6 +14,7 @@ import java.util.zip.ZipFile;
 
 /**
  * Analyse results of an evaluation run.
+ * See QueryFacts for a general tool to query the archived databases.
  * @author jens dietrich
  */
 public class AnalyseResults {
@@ -27,16 +29,14 @@ public class AnalyseResults {
         // extracts raw version fact from EDB
         Function<Path,String> extractor = path -> {
             Path edb = path.resolve("edb.zip");
-            try {
-                ZipFile zip = new ZipFile(edb.toFile());
+            try (ZipFile zip = new ZipFile(edb.toFile())) {
                 ZipEntry entry = zip.getEntry("edb/facts/VERSION.facts");
-                InputStream inputStream = zip.getInputStream(entry);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-                return reader.lines()
-                    .map(line -> line.split("\t"))
-                    .map(tokens -> tokens[2])// in particular ignore fact id
-                    .collect(Collectors.joining(System.lineSeparator()));
-
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry)))) {
+                    return reader.lines()
+                        .map(line -> line.split("\t"))
+                        .map(tokens -> tokens[2])// in particular ignore fact id
+                        .collect(Collectors.joining(System.lineSeparator()));
+                }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -46,22 +46,21 @@ public class AnalyseResults {
     }
 
     protected static void analyse(Path root, String provider1, String provider2, Function<Path,String> extraction) throws IOException {
-        for (File gavDir:root.toFile().listFiles(f -> f.isDirectory() && !f.isHidden())) {
+        // class folders are taken from the manifest if there is one
+        for (File classDir:CheckEvaluationResults.getProviderDirs(root.toFile()).keySet()) {
+            File gavDir = classDir.getParentFile();
+            File providerDir1 = new File(classDir, provider1);
+            File providerDir2 = new File(classDir, provider2);
+            Preconditions.checkState(providerDir1.exists());
+            Preconditions.checkState(providerDir2.exists());
+            Preconditions.checkState(providerDir1.isDirectory());
+            Preconditions.checkState(providerDir2.isDirectory());
 
-            for (File classDir:gavDir.listFiles(f -> f.isDirectory() && !f.isHidden())) {
-                File providerDir1 = new File(classDir, provider1);
-                File providerDir2 = new File(classDir, provider2);
-                Preconditions.checkState(providerDir1.exists());
-                Preconditions.checkState(providerDir2.exists());
-                Preconditions.checkState(providerDir1.isDirectory());
-                Preconditions.checkState(providerDir2.isDirectory());
+            String content1 = extraction.apply(Path.of(providerDir1.getAbsolutePath()));
+            String content2 = extraction.apply(Path.of(providerDir2.getAbsolutePath()));
 
-                String content1 = extraction.apply(Path.of(providerDir1.getAbsolutePath()));
-                String content2 = extraction.apply(Path.of(providerDir2.getAbsolutePath()));
-
-                if (!content1.equals(content2)) {
-                    LOG.info("Differences found in gav {}, class {}", gavDir,classDir);
-                }
+            if (!content1.equals(content2)) {
+                LOG.info("Differences found in gav {}, class {}", gavDir,classDir);
             }
         }
     }
@@ -2,6 +2,7 @@ package io.github.bineq.daleq.evaluation.resultanalysis;
 
 import com.google.common.base.Preconditions;
 import com.google.common.math.Stats;
+import io.github.bineq.daleq.evaluation.Manifest;
 import org.checkerframework.checker.units.qual.A;
 
 import java.nio.file.Files;
@@ -13,7 +14,7 @@ import java.util.stream.Stream;
 
 /**
  * Compute stats about the runtime of building the EDBs/IDBs.
- * Relies on the timestamp files generated in the result set.
+ * Relies on the manifest, or (if there is no manifest) the timestamp files generated in the result set.
  * @author jens dietrich
  */
 public class ComputeRuntimeStats {
@@ -32,25 +33,32 @@ public class ComputeRuntimeStats {
             })
             .collect(Collectors.toUnmodifiableList());
 
-        List<Path> timestampFiles = new ArrayList<>();
+        List<Integer> timestamps =  new ArrayList<>();
         for (Path root : roots) {
-            List<Path> timestampFiles2 = Files.walk(root)
-                .filter(Files::isRegularFile)
-                .filter(f -> f.getFileName().toString().equals(TIMESTAMP_FILENAME))
-                .collect(Collectors.toList());
-            timestampFiles.addAll(timestampFiles2);
-        }
-
-        System.out.println(""+timestampFiles.size()+ " found");
-        List<Integer> timestamps =  new ArrayList<>(timestampFiles.size());
-        for (Path timestampFile : timestampFiles) {
-            List<String> lines = Files.readAllLines(timestampFile);
-            int timestamp = Integer.parseInt(lines.get(0));
-            if (timestamp>10_000) {
-                System.out.println("big timestamp " + timestamp + " for " + timestampFile);
+            List<Manifest.Artifact> artifacts = Manifest.readArtifacts(root);
+            if (artifacts != null) {
+                // the manifest written by the runners has the timestamps, no need to walk the output folder
+                for (Manifest.Artifact artifact : artifacts) {
+                    if (artifact.tool().equals("daleq") && artifact.timeInMs() >= 0) {
+                        addTimestamp(timestamps, (int) artifact.timeInMs(), artifact.path());
+                    }
+                }
+            }
+            else {
+                List<Path> timestampFiles;
+                try (Stream<Path> files = Files.walk(root)) {
+                    timestampFiles = files
+                        .filter(Files::isRegularFile)
+                        .filter(f -> f.getFileName().toString().equals(TIMESTAMP_FILENAME))
+                        .collect(Collectors.toList());
+                }
+                for (Path timestampFile : timestampFiles) {
+                    List<String> lines = Files.readAllLines(timestampFile);
+                    addTimestamp(timestamps, Integer.parseInt(lines.get(0)), timestampFile);
+                }
             }
-            timestamps.add(timestamp);
         }
+        System.out.println(""+timestamps.size()+ " found");
 
         Stats stats = Stats.of(timestamps);
 
@@ -60,4 +68,11 @@ public class ComputeRuntimeStats {
         System.out.println("min: " + stats.min());
         System.out.println("stddev: " + stats.populationStandardDeviation());
     }
-}
\ No newline at end of file
+
+    private static void addTimestamp(List<Integer> timestamps, int timestamp, Path source) {
+        if (timestamp>10_000) {
+            System.out.println("big timestamp " + timestamp + " for " + source);
+        }
+        timestamps.add(timestamp);
+    }
+}
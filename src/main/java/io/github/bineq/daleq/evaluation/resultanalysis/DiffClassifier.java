@@ -0,0 +1,195 @@
+package io.github.bineq.daleq.evaluation.resultanalysis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Classifies daleq diff files by the patterns (likely causes of non-equivalence) they contain.
+ * Each diff is read once, added / removed lines are dispatched by relation prefix to the detectors registered for the respective pattern.
+ * A new set of detectors is used for each diff, so classification of different diffs can run in parallel.
+ * @author jens dietrich
+ */
+public class DiffClassifier {
+
+    public enum Pattern {
+
+        REMOVED_CHECKCAST("checkcast removed/added", "removed checkcast", "IDB_CHECKCAST", () -> new SymmetricDifferenceDetector(DiffLine::getLastToken)),
+        // compare the constant values being loaded
+        CHANGED_CONSTANT("changed constant", "changed constant", "IDB_LDC", () -> new SymmetricDifferenceDetector(DiffLine::getLastToken)),
+        STRINGBUILDER_INITIALISATION("stringbuilder initialisation", "StringBuilder initialisation", null, StringBuilderInitialisationDetector::new),
+        MISSING_METHOD_SIGNATURE("missing method signatures", "missing method signature", "IDB_METHOD_SIGNATURE", () -> new SymmetricDifferenceDetector(line -> line.getLastToken().equals("null") ? "null" : null)),
+        DEFINITION_OF_SYNTHETIC_METHODS("definition of synthetic methods", "synthetic methods renamed", "IDB_METHOD", () -> new SymmetricDifferenceDetector(line -> line.contains("$") ? line.getTokenAt(2) : null)),
+        DEFINITION_OF_SYNTHETIC_FIELDS("definition of synthetic fields", "synthetic fields renamed", "IDB_FIELD", () -> new SymmetricDifferenceDetector(line -> line.contains("$") ? line.getTokenAt(2) : null)),
+        DEFINITION_OF_ANNOTATIONS("definition of annotations", "annotations changed", "IDB_ANNOTATION", () -> new SymmetricDifferenceDetector(DiffLine::getLineWithoutDiffChar)),
+        ACCESS_CHANGED("access changed", "access changed", "IDB_ACCESS", () -> new SymmetricDifferenceDetector(DiffLine::getLastToken));
+
+        private final String name;
+        private final String description;
+        private final String relationPrefix;  // null means all relations
+        private final Supplier<Detector> detectorFactory;
+
+        Pattern(String name, String description, String relationPrefix, Supplier<Detector> detectorFactory) {
+            this.name = name;
+            this.description = description;
+            this.relationPrefix = relationPrefix;
+            this.detectorFactory = detectorFactory;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    // patterns registered for relations, computed on demand
+    private static final Map<String,Pattern[]> PATTERNS_BY_RELATION = new ConcurrentHashMap<>();
+
+    /**
+     * Classify a diff file.
+     * @param diff a daleq-diff.txt file
+     * @return the patterns found, in the order in which they are declared
+     */
+    public static Set<Pattern> classify(Path diff) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(diff)) {
+            return classify(reader.lines().iterator());
+        }
+    }
+
+    public static Set<Pattern> classify(Iterator<String> lines) {
+        Map<Pattern,Detector> detectors = new EnumMap<>(Pattern.class);
+        for (Pattern pattern : Pattern.values()) {
+            detectors.put(pattern, pattern.detectorFactory.get());
+        }
+        while (lines.hasNext()) {
+            String line = lines.next();
+            if (line.isEmpty() || (line.charAt(0) != '+' && line.charAt(0) != '-')) {
+                continue;  // context lines
+            }
+            DiffLine diffLine = new DiffLine(line);
+            for (Pattern pattern : PATTERNS_BY_RELATION.computeIfAbsent(diffLine.getRelation(), DiffClassifier::getPatterns)) {
+                detectors.get(pattern).accept(diffLine);
+            }
+        }
+        Set<Pattern> patterns = EnumSet.noneOf(Pattern.class);
+        detectors.forEach((pattern, detector) -> {
+            if (detector.matches()) {
+                patterns.add(pattern);
+            }
+        });
+        return patterns;
+    }
+
+    private static Pattern[] getPatterns(String relation) {
+        return Arrays.stream(Pattern.values())
+            .filter(pattern -> pattern.relationPrefix == null || relation.startsWith(pattern.relationPrefix))
+            .toArray(Pattern[]::new);
+    }
+
+    /**
+     * An added or removed line in a diff, tokens are computed lazily and only once.
+     */
+    static class DiffLine {
+        private final String line;
+        private String[] tokens = null;
+
+        DiffLine(String line) {
+            this.line = line;
+        }
+
+        boolean isAdded() {
+            return line.charAt(0) == '+';
+        }
+
+        String getRelation() {
+            int index = line.indexOf('\t');
+            return index == -1 ? line.substring(1) : line.substring(1, index);
+        }
+
+        boolean contains(String s) {
+            return line.contains(s);
+        }
+
+        String getLineWithoutDiffChar() {
+            return line.substring(1);
+        }
+
+        String getTokenAt(int i) {
+            if (tokens == null) {
+                tokens = line.split("\t");
+            }
+            return tokens[i];
+        }
+
+        String getLastToken() {
+            if (tokens == null) {
+                tokens = line.split("\t");
+            }
+            return tokens[tokens.length - 1];
+        }
+    }
+
+    interface Detector {
+        void accept(DiffLine line);
+        boolean matches();
+    }
+
+    // detects differences between the values extracted from added and removed lines, extractors return null for lines to be ignored
+    static class SymmetricDifferenceDetector implements Detector {
+        private final Function<DiffLine,String> extractor;
+        private final Set<String> added = new HashSet<>();
+        private final Set<String> removed = new HashSet<>();
+
+        SymmetricDifferenceDetector(Function<DiffLine,String> extractor) {
+            this.extractor = extractor;
+        }
+
+        @Override
+        public void accept(DiffLine line) {
+            String value = extractor.apply(line);
+            if (value != null) {
+                (line.isAdded() ? added : removed).add(value);
+            }
+        }
+
+        @Override
+        public boolean matches() {
+            return !added.equals(removed);
+        }
+    }
+
+    // java/lang/StringBuilder <init>  (I)V replaced by java/lang/StringBuilder <init>  ()V , or vice versa
+    static class StringBuilderInitialisationDetector implements Detector {
+        private boolean addedWithCapacity = false;
+        private boolean removedWithCapacity = false;
+        private boolean addedDefault = false;
+        private boolean removedDefault = false;
+
+        @Override
+        public void accept(DiffLine line) {
+            if (line.contains("java/lang/StringBuilder") && line.contains("<init>")) {
+                if (line.contains("(I)V")) {
+                    addedWithCapacity = addedWithCapacity || line.isAdded();
+                    removedWithCapacity = removedWithCapacity || !line.isAdded();
+                }
+                if (line.contains("()V")) {
+                    addedDefault = addedDefault || line.isAdded();
+                    removedDefault = removedDefault || !line.isAdded();
+                }
+            }
+        }
+
+        @Override
+        public boolean matches() {
+            return (addedWithCapacity && removedDefault) || (removedWithCapacity && addedDefault);
+        }
+    }
+}
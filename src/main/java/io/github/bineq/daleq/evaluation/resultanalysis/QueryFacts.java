@@ -0,0 +1,151 @@
+package io.github.bineq.daleq.evaluation.resultanalysis;
+
+import com.google.common.base.Preconditions;
+import io.github.bineq.daleq.evaluation.Manifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Query the facts in the archived databases (edb.zip / idb.zip) retained by an evaluation run, without extracting them.
+ * Usage: <code>QueryFacts [-count] <output-folder> <edb|idb> <relation>[:<column>,<column>,..] ..</code>
+ * Column indices start with 0, column 0 is the fact id. If no columns are specified, all columns are printed.
+ * Rows are printed as tab-separated values: gav, class, provider, relation, followed by the values of the selected columns.
+ * With <code>-count</code>, the number of occurrences of each distinct row (without gav, class and provider) is printed instead.
+ * Archives are located using the manifest if there is one, GAVs are processed in parallel.
+ * @author jens dietrich
+ */
+public class QueryFacts {
+
+    final static Logger LOG = LoggerFactory.getLogger(QueryFacts.class);
+
+    public static final String COUNT = "-count";
+
+    record Query(String relation, int[] columns) {
+        static Query parse(String arg) {
+            String[] parts = arg.split(":");
+            Preconditions.checkArgument(parts.length <= 2, "relation must be specified as <relation>[:<column>,<column>,..], found " + arg);
+            int[] columns = parts.length == 1 ? null : Stream.of(parts[1].split(",")).mapToInt(Integer::parseInt).toArray();
+            return new Query(parts[0], columns);
+        }
+
+        String project(String line) {
+            String[] tokens = line.split("\t");
+            if (columns == null) {
+                return String.join("\t", tokens);
+            }
+            StringBuilder b = new StringBuilder();
+            for (int column : columns) {
+                if (b.length() > 0) {
+                    b.append('\t');
+                }
+                b.append(column < tokens.length ? tokens[column] : "");
+            }
+            return b.toString();
+        }
+    }
+
+    public static void main (String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(List.of(args));
+        boolean count = arguments.remove(COUNT);
+        Preconditions.checkArgument(arguments.size() > 2, "usage: QueryFacts [-count] <output-folder> <edb|idb> <relation>[:<column>,<column>,..] ..");
+        Path root = Path.of(arguments.get(0));
+        Preconditions.checkArgument(Files.isDirectory(root), "not a folder: " + root);
+        String db = arguments.get(1);
+        Preconditions.checkArgument(db.equals("edb") || db.equals("idb"), "database must be edb or idb, found " + db);
+        List<Query> queries = arguments.stream().skip(2).map(Query::parse).collect(Collectors.toUnmodifiableList());
+
+        Map<String,List<Path>> archivesByGAV = findArchives(root, db + ".zip").stream()
+            .collect(Collectors.groupingBy(archive -> root.relativize(archive).getName(0).toString()));
+        LOG.info("Querying archives for {} GAVs", archivesByGAV.size());
+
+        Map<String,LongAdder> counts = new ConcurrentHashMap<>();
+        archivesByGAV.values().parallelStream().forEach(archives -> {
+            for (Path archive : archives) {
+                try {
+                    // rows for an archive are printed as one block, as archives are queried in parallel
+                    StringBuilder rows = new StringBuilder();
+                    query(archive, db, queries, (query, row) -> {
+                        if (count) {
+                            counts.computeIfAbsent(query.relation() + '\t' + row, k -> new LongAdder()).increment();
+                        }
+                        else {
+                            Path rel = root.relativize(archive);
+                            rows.append(rel.getName(0)).append('\t')        // gav
+                                .append(rel.getName(1)).append('\t')        // class
+                                .append(archive.getParent().getFileName()).append('\t') // provider
+                                .append(query.relation()).append('\t')
+                                .append(row).append(System.lineSeparator());
+                        }
+                    });
+                    if (rows.length() > 0) {
+                        System.out.print(rows);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+
+        if (count) {
+            counts.entrySet().stream()
+                .sorted(Map.Entry.<String,LongAdder>comparingByValue(Comparator.comparingLong(LongAdder::sum)).reversed())
+                .forEach(e -> System.out.println(e.getValue().sum() + "\t" + e.getKey()));
+        }
+    }
+
+    interface RowConsumer {
+        void accept(Query query, String row);
+    }
+
+    // stream the facts of the queried relations from an archive, entries are not extracted
+    static void query(Path archive, String db, List<Query> queries, RowConsumer consumer) throws IOException {
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            for (Query query : queries) {
+                ZipEntry entry = zip.getEntry(db + "/facts/" + query.relation() + ".facts");
+                if (entry == null) {
+                    continue;
+                }
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        consumer.accept(query, query.project(line));
+                    }
+                }
+            }
+        }
+        catch (IOException x) {
+            throw new IOException("Error querying " + archive, x);
+        }
+    }
+
+    // archives are next to the IDB printouts listed in the manifest, if there is no manifest the output folder is searched
+    static List<Path> findArchives(Path root, String archiveName) throws IOException {
+        List<Manifest.Artifact> artifacts = Manifest.readArtifacts(root);
+        if (artifacts != null) {
+            return artifacts.stream()
+                .filter(artifact -> artifact.tool().equals("daleq"))
+                .map(artifact -> artifact.path().resolveSibling(archiveName))
+                .filter(Files::exists)
+                .collect(Collectors.toList());
+        }
+        // RunEvaluation: gav/class/provider , RunComparativeEvaluation: gav/class/daleq/provider
+        try (Stream<Path> files = Files.find(root, 5, (path, attr) -> attr.isRegularFile() && path.getFileName().toString().equals(archiveName))) {
+            return files.collect(Collectors.toList());
+        }
+    }
+}
@@ -1,14 +1,13 @@
 package io.github.bineq.daleq.evaluation.tools;
 
 import com.google.common.base.Preconditions;
-import org.apache.commons.io.output.TeeWriter;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.spi.ToolProvider;
 
 /**
@@ -22,7 +21,7 @@ public class Javap {
     private static final ToolProvider javap = ToolProvider.findFirst("javap").orElseThrow();
 
     /**
-     * Run javap -c -p.  Result files are generated for provenance.
+     * Run javap -c -p.  Result files are generated for provenance, and only written if javap succeeds.
      * @param cachedByteCode
      * @param disassembledByteCode
      * @return a byte array containing the disassembled code, or null if disassembly fails
@@ -33,22 +32,28 @@ public class Javap {
 
         // Adapted from
         StringWriter out = new StringWriter();
-        int exitCode = 0;
-        try (FileWriter cachedOutput = new FileWriter(disassembledByteCode.toFile())) {
-            TeeWriter tee = new TeeWriter(cachedOutput, out);
-            PrintWriter stdoutAndStderr = new PrintWriter(tee);
-            exitCode = javap.run(
-                    stdoutAndStderr,
-                    stdoutAndStderr,
-                    "-c", "-p", cachedByteCode.toString());
-
-            stdoutAndStderr.flush();
-
-            if (exitCode != 0) {
-                throw new IOException("error running javap on " + cachedByteCode);
-            }
-
-            return out.toString().getBytes();
+        PrintWriter stdoutAndStderr = new PrintWriter(out);
+        int exitCode = javap.run(
+                stdoutAndStderr,
+                stdoutAndStderr,
+                "-c", "-p", cachedByteCode.toString());
+
+        stdoutAndStderr.flush();
+
+        if (exitCode != 0) {
+            throw new IOException("error running javap on " + cachedByteCode);
+        }
+
+        // the result file is moved into place when complete, so that runs that are abandoned (e.g. on timeouts) never leave partial files
+        byte[] disassembled = out.toString().getBytes();
+        Path tmp = Files.createTempFile(disassembledByteCode.getParent(), disassembledByteCode.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, disassembled);
+            Files.move(tmp, disassembledByteCode, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
         }
+        return disassembled;
     }
 }
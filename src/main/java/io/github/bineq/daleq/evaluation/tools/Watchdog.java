@@ -0,0 +1,156 @@
+package io.github.bineq.daleq.evaluation.tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Enforces time budgets for invocations of external tools (souffle, jnorm) and javap.
+ * Budgets are set in seconds using JVM arguments, e.g. -DSOUFFLE_TIMEOUT=600 , a value of 0 disables the budget.
+ * When a budget is exceeded, the processes spawned for the invocation are killed, and a TimeoutException is thrown.
+ * @author jens dietrich
+ */
+public class Watchdog {
+
+    final static Logger LOG = LoggerFactory.getLogger(Watchdog.class);
+
+    public static final String SOUFFLE_TIMEOUT = "SOUFFLE_TIMEOUT";
+    public static final String JNORM_TIMEOUT = "JNORM_TIMEOUT";
+    public static final String JAVAP_TIMEOUT = "JAVAP_TIMEOUT";
+
+    public static final long SOUFFLE_TIMEOUT_IN_SEC = Long.getLong(SOUFFLE_TIMEOUT, 300);
+    public static final long JNORM_TIMEOUT_IN_SEC = Long.getLong(JNORM_TIMEOUT, 1800);  // jnorm processes entire jars
+    public static final long JAVAP_TIMEOUT_IN_SEC = Long.getLong(JAVAP_TIMEOUT, 60);
+
+    // tasks run on the calling thread (which may be a virtual thread), this thread only cancels them when budgets are exceeded
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "watchdog-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Run a task within a time budget, on the calling thread.
+     * On timeout, child processes of this JVM that have the marker in their command line are killed, and the calling thread is interrupted.
+     * The processes are also killed if the calling thread is interrupted (i.e. the comparison has been cancelled), then the exception is rethrown.
+     * Tasks that run in-process (like javap) and do not respond to interrupts are not stopped, the timeout is reported when they return.
+     * @param task the task
+     * @param timeoutInSec the budget, values <= 0 mean no budget
+     * @param processMarker a path that is part of the command line of the processes spawned by the task (e.g. an input or output folder), can be null
+     * @return the result of the task
+     * @throws TimeoutException if the budget is exceeded
+     * @throws Exception if the task fails
+     */
+    public static <T> T run(Callable<T> task, long timeoutInSec, Path processMarker) throws Exception {
+        Thread caller = Thread.currentThread();
+        ReentrantLock lock = new ReentrantLock();
+        AtomicBoolean finished = new AtomicBoolean(false);
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutInSec);
+        ScheduledFuture<?> timer = timeoutInSec <= 0 ? null : TIMER.schedule(() -> {
+            // the lock ensures that the caller is not interrupted once the task has finished
+            lock.lock();
+            try {
+                if (!finished.get()) {
+                    timedOut.set(true);
+                    if (processMarker != null) {
+                        killChildProcesses(processMarker);
+                    }
+                    caller.interrupt();
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }, timeoutInSec, TimeUnit.SECONDS);
+
+        T result = null;
+        Exception failure = null;
+        long end;
+        try {
+            result = task.call();
+        }
+        catch (Exception x) {
+            failure = x;
+        }
+        finally {
+            // set as soon as the task has returned, so that the timer does not kill or interrupt anything from now on
+            end = System.nanoTime();
+            finished.set(true);
+        }
+
+        lock.lock();
+        try {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            if (timedOut.get()) {
+                // the interrupt was only used to stop the task
+                Thread.interrupted();
+            }
+            // the timer may have fired just before finished was set, but after the task had returned within the budget
+            if (timedOut.get() && end - deadline >= 0) {
+                throw new TimeoutException("task has not finished within " + timeoutInSec + "s" + (processMarker == null ? "" : " (" + processMarker + ")"));
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        if (failure != null) {
+            if (processMarker != null && (failure instanceof InterruptedException || caller.isInterrupted())) {
+                // the comparison has been cancelled
+                killChildProcesses(processMarker);
+            }
+            throw failure;
+        }
+        return result;
+    }
+
+    /**
+     * Wait for a process to terminate within a time budget, on timeout (or if the calling thread is interrupted) the process and its descendants are killed.
+     * @param process the process
+     * @param timeoutInSec the budget, values <= 0 mean no budget
+     * @return the exit value of the process
+     * @throws TimeoutException if the budget is exceeded
+     */
+    public static int waitFor(Process process, long timeoutInSec) throws InterruptedException, TimeoutException {
+        try {
+            if (timeoutInSec <= 0) {
+                return process.waitFor();
+            }
+            if (!process.waitFor(timeoutInSec, TimeUnit.SECONDS)) {
+                kill(process.toHandle());
+                throw new TimeoutException("process " + process.pid() + " has not finished within " + timeoutInSec + "s");
+            }
+            return process.exitValue();
+        }
+        catch (InterruptedException x) {
+            // the comparison has been cancelled
+            kill(process.toHandle());
+            throw x;
+        }
+    }
+
+    /**
+     * Kill child processes of this JVM that have the marker as part of their command line.
+     * @param processMarker a path, both the path as given and its absolute form are matched
+     */
+    public static void killChildProcesses(Path processMarker) {
+        String marker1 = processMarker.toString();
+        String marker2 = processMarker.toAbsolutePath().toString();
+        ProcessHandle.current().descendants()
+            .filter(p -> p.info().commandLine().map(cmd -> cmd.contains(marker1) || cmd.contains(marker2)).orElse(false))
+            .forEach(Watchdog::kill);
+    }
+
+    private static void kill(ProcessHandle process) {
+        LOG.warn("killing process {} ({})", process.pid(), process.info().commandLine().orElse("?"));
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the binary snapshots of dataset indexes written and read by DatasetIndex.
+ * @author jens dietrich
+ */
+public class DatasetIndexTest {
+
+    private static String line(Path root, String artifactId, String version) throws IOException {
+        String folder = "provider/org/example/" + artifactId + "/" + version + "/";
+        String bin = folder + artifactId + "-" + version + ".jar";
+        String src = folder + artifactId + "-" + version + "-sources.jar";
+        Files.createDirectories(root.resolve(folder));
+        Files.createFile(root.resolve(bin));
+        Files.createFile(root.resolve(src));
+        String url = "https://repo.example.org/org/example/" + artifactId + "/" + version + "/";
+        return String.join("\t", "org.example", artifactId, version, version,
+            bin, url + artifactId + "-" + version + ".jar", "md5-bin-" + artifactId, url + artifactId + "-" + version + ".jar.md5",
+            src, url + artifactId + "-" + version + "-sources.jar", "md5-src-" + artifactId, url + artifactId + "-" + version + "-sources.jar.md5");
+    }
+
+    private static Set<String> fileNames(Path folder) throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toSet());
+        }
+    }
+
+    @Test
+    public void testSnapshotRoundTrip(@TempDir Path root) throws IOException {
+        Path index = root.resolve("index.tsv");
+        Files.write(index, List.of(line(root, "a1", "1.0.0"), line(root, "a2", "2.0.0")));
+
+        Set<Record> records = DatasetIndex.load(index);
+        assertEquals(2, records.size());
+        Path snapshot = root.resolve("index.tsv" + DatasetIndex.SNAPSHOT_EXTENSION);
+        assertTrue(Files.exists(snapshot));
+        // no temporary files are left behind
+        assertEquals(Set.of("index.tsv", "index.tsv" + DatasetIndex.SNAPSHOT_EXTENSION, "provider"), fileNames(root));
+
+        // the existence of files is not checked when records are loaded from a snapshot, so this only succeeds if the snapshot is used
+        Record record = records.iterator().next();
+        Files.delete(record.binMainFile());
+        Set<Record> recordsFromSnapshot = DatasetIndex.load(index);
+        assertEquals(records, recordsFromSnapshot);
+    }
+
+    @Test
+    public void testStaleSnapshot(@TempDir Path root) throws IOException {
+        Path index = root.resolve("index.tsv");
+        String line1 = line(root, "a1", "1.0.0");
+        String line2 = line(root, "a2", "2.0.0");
+        Files.write(index, List.of(line1, line2));
+        assertEquals(2, DatasetIndex.load(index).size());
+
+        // same modification time, but different content
+        FileTime lastModified = Files.getLastModifiedTime(index);
+        Files.write(index, List.of(line1));
+        Files.setLastModifiedTime(index, lastModified);
+
+        Set<Record> records = DatasetIndex.load(index);
+        assertEquals(1, records.size());
+        assertEquals("a1", records.iterator().next().artifactId());
+        // the snapshot has been replaced
+        assertEquals(records, DatasetIndex.load(index));
+    }
+
+    @Test
+    public void testCorruptSnapshot(@TempDir Path root) throws IOException {
+        Path index = root.resolve("index.tsv");
+        Files.write(index, List.of(line(root, "a1", "1.0.0")));
+        Path snapshot = root.resolve("index.tsv" + DatasetIndex.SNAPSHOT_EXTENSION);
+        Files.write(snapshot, new byte[]{1, 2, 3});
+
+        Set<Record> records = DatasetIndex.load(index);
+        assertEquals(1, records.size());
+        assertEquals(records, DatasetIndex.load(index));
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the packing of results into a single byte (base 6) in ResultTable.
+ * @author jens dietrich
+ */
+public class ResultTableTest {
+
+    @Test
+    public void testAllCombinationsOfResults() {
+        ResultTable table = new ResultTable();
+        List<RunComparativeEvaluation.ComparativeEvaluationResultRecord> expected = new ArrayList<>();
+        for (ComparisonResult javap : ComparisonResult.values()) {
+            for (ComparisonResult jnorm : ComparisonResult.values()) {
+                for (ComparisonResult daleq : ComparisonResult.values()) {
+                    RunComparativeEvaluation.ComparativeEvaluationResultRecord record = new RunComparativeEvaluation.ComparativeEvaluationResultRecord(
+                        "g:a:" + expected.size(), "p1", "p2", "C" + expected.size() + ".class", javap, jnorm, daleq);
+                    table.add(record);
+                    expected.add(record);
+                }
+            }
+        }
+        // 216 combinations, packed values above 127 are negative as signed bytes
+        assertEquals(216, table.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), table.get(i));
+        }
+    }
+
+    @Test
+    public void testGrowth() {
+        ResultTable table = new ResultTable();
+        ComparisonResult[] results = ComparisonResult.values();
+        int size = 5000;
+        for (int i = 0; i < size; i++) {
+            table.add("g:a:1", "p" + (i % 3), "p" + (i % 5), "C" + i + ".class", results[i % 6], results[(i / 6) % 6], results[(i / 36) % 6]);
+        }
+        assertEquals(size, table.size());
+        for (int i = 0; i < size; i = i + 7) {
+            RunComparativeEvaluation.ComparativeEvaluationResultRecord record = table.get(i);
+            assertEquals("p" + (i % 3), record.provider1());
+            assertEquals("p" + (i % 5), record.provider2());
+            assertEquals("C" + i + ".class", record.clazz());
+            assertEquals(results[i % 6], record.result4javap());
+            assertEquals(results[(i / 6) % 6], record.result4jnorm());
+            assertEquals(results[(i / 36) % 6], record.result4daleq());
+        }
+        assertEquals(size, table.stream().count());
+    }
+
+    @Test
+    public void testResultRecord() {
+        ResultTable table = new ResultTable();
+        table.add(new ResultRecord("g:a:1", "p1", "p2", "C.class", ComparisonResult.TIMEOUT));
+        RunComparativeEvaluation.ComparativeEvaluationResultRecord record = table.get(0);
+        assertEquals(ComparisonResult.UNKNOWN, record.result4javap());
+        assertEquals(ComparisonResult.UNKNOWN, record.result4jnorm());
+        assertEquals(ComparisonResult.TIMEOUT, record.result4daleq());
+        assertEquals(new ResultRecord("g:a:1", "p1", "p2", "C.class", ComparisonResult.TIMEOUT), table.getResultRecord(0));
+    }
+
+    @Test
+    public void testIndexOutOfBounds() {
+        ResultTable table = new ResultTable();
+        assertThrows(IndexOutOfBoundsException.class, () -> table.get(0));
+    }
+}
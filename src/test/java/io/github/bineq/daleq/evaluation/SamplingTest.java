@@ -0,0 +1,130 @@
+package io.github.bineq.daleq.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the allocation of the sampling budget to strata, the stratification and the estimates.
+ * @author jens dietrich
+ */
+public class SamplingTest {
+
+    private static List<Sampling.Unit> units(String stratum, int size) {
+        List<Sampling.Unit> units = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            units.add(new Sampling.Unit("g:a:1", "p1", "p2", "C" + i + ".class", stratum));
+        }
+        return units;
+    }
+
+    @Test
+    public void testProportionalAllocation() {
+        Map<String,List<Sampling.Unit>> strata = Map.of("A", units("A", 80), "B", units("B", 15), "C", units("C", 5));
+        Map<String,Integer> allocation = Sampling.allocate(strata, 10);
+        // one per stratum, the rest (7) is allocated proportionally, the remainder goes to the largest fractional part (A)
+        assertEquals(Map.of("A", 7, "B", 2, "C", 1), allocation);
+    }
+
+    @Test
+    public void testAtLeastOnePerStratum() {
+        Map<String,List<Sampling.Unit>> strata = Map.of("A", units("A", 1000), "B", units("B", 1), "C", units("C", 2));
+        Map<String,Integer> allocation = Sampling.allocate(strata, 5);
+        assertEquals(5, allocation.values().stream().mapToInt(n -> n).sum());
+        assertEquals(1, allocation.get("B"));
+        assertEquals(1, allocation.get("C"));
+        assertEquals(3, allocation.get("A"));
+    }
+
+    @Test
+    public void testAllocationLimitedByStratumSize() {
+        Map<String,List<Sampling.Unit>> strata = Map.of("A", units("A", 2), "B", units("B", 1));
+        assertEquals(Map.of("A", 2, "B", 1), Sampling.allocate(strata, 10));
+    }
+
+    @Test
+    public void testStratificationByGA() {
+        List<Sampling.Unit> population = new ArrayList<>();
+        population.addAll(units("p1\tp2\tg:a1\t0", 3));
+        population.addAll(units("p1\tp2\tg:a2\t0", 3));
+        population.addAll(units("p1\tp2\tg:a3\t1", 3));
+        Map<String,List<Sampling.Unit>> strata = Sampling.stratify(population, 3);
+        assertEquals(Set.of("p1\tp2\tg:a1\t0", "p1\tp2\tg:a2\t0", "p1\tp2\tg:a3\t1"), strata.keySet());
+    }
+
+    @Test
+    public void testStratificationWithoutGAIfBudgetIsExceeded() {
+        List<Sampling.Unit> population = new ArrayList<>();
+        population.addAll(units("p1\tp2\tg:a1\t0", 3));
+        population.addAll(units("p1\tp2\tg:a2\t0", 3));
+        population.addAll(units("p1\tp2\tg:a3\t1", 3));
+        Map<String,List<Sampling.Unit>> strata = Sampling.stratify(population, 2);
+        assertEquals(Set.of("p1\tp2\t0", "p1\tp2\t1"), strata.keySet());
+        assertEquals(6, strata.get("p1\tp2\t0").size());
+        assertEquals(3, strata.get("p1\tp2\t1").size());
+    }
+
+    @Test
+    public void testBudgetTooSmall() {
+        List<Sampling.Unit> population = new ArrayList<>();
+        population.addAll(units("p1\tp2\tg:a1\t0", 3));
+        population.addAll(units("p1\tp2\tg:a1\t1", 3));
+        assertThrows(IllegalStateException.class, () -> Sampling.stratify(population, 1));
+    }
+
+    @Test
+    public void testWilson() {
+        double[] interval = Sampling.wilson(0.5, 100);
+        assertEquals(0.4038, interval[0], 0.0001);
+        assertEquals(0.5962, interval[1], 0.0001);
+
+        interval = Sampling.wilson(0, 10);
+        assertEquals(0, interval[0], 0.0001);
+        assertEquals(0.2775, interval[1], 0.0001);
+
+        assertArrayEquals(new double[]{0, 1}, Sampling.wilson(0.5, 0));
+    }
+
+    @Test
+    public void testEstimateUsesEffectiveSampleSize() {
+        ComparisonResult EQ = ComparisonResult.EQUAL;
+        ComparisonResult NEQ = ComparisonResult.NON_EQUIVALENT;
+        Map<String,Integer> populationSizes = Map.of("A", 100, "B", 100);
+        Map<String,List<ComparisonResult>> results = Map.of("A", List.of(EQ, NEQ, EQ, NEQ), "B", List.of(EQ, EQ, EQ, EQ));
+        Sampling.Estimate estimate = Sampling.estimate("daleq", EQ, populationSizes, results);
+
+        assertEquals(0.75, estimate.proportion(), 0.0001);
+        // variance 0.5^2 * (1 - 4/100) * 0.25 / 3 = 0.02 (the second stratum does not contribute), Kish effective sample size 0.75 * 0.25 / 0.02
+        double[] interval = Sampling.wilson(0.75, 9.375);
+        assertEquals(interval[0], estimate.lower(), 0.0001);
+        assertEquals(interval[1], estimate.upper(), 0.0001);
+        // the interval is not the one for the nominal sample size
+        assertNotEquals(Sampling.wilson(0.75, 8)[0], estimate.lower(), 0.0001);
+    }
+
+    @Test
+    public void testEstimateExcludesPairsNotEvaluated() {
+        ComparisonResult EQ = ComparisonResult.EQUAL;
+        ComparisonResult NEQ = ComparisonResult.NON_EQUIVALENT;
+        Map<String,Integer> populationSizes = Map.of("A", 100, "B", 100, "C", 1000);
+        Map<String,List<ComparisonResult>> results = new HashMap<>();
+        results.put("A", Arrays.asList(EQ, NEQ, null, EQ, NEQ));
+        results.put("B", List.of(EQ, EQ, EQ, EQ));
+        results.put("C", Arrays.asList(null, null));
+        Sampling.Estimate estimate = Sampling.estimate("daleq", EQ, populationSizes, results);
+
+        Sampling.Estimate expected = Sampling.estimate("daleq", EQ, Map.of("A", 100, "B", 100), Map.of("A", List.of(EQ, NEQ, EQ, NEQ), "B", List.of(EQ, EQ, EQ, EQ)));
+        assertEquals(expected, estimate);
+    }
+
+    @Test
+    public void testEstimateWithoutResults() {
+        Map<String,List<ComparisonResult>> results = new HashMap<>();
+        results.put("A", Arrays.asList(null, null));
+        Sampling.Estimate estimate = Sampling.estimate("daleq", ComparisonResult.EQUAL, Map.of("A", 10), results);
+        assertEquals(0, estimate.lower());
+        assertEquals(1, estimate.upper());
+    }
+}